@@ -4,7 +4,13 @@ import dev.keaneaudric.enderShare.commands.EnderShareCommand;
 import dev.keaneaudric.enderShare.listeners.EnderShareListener;
 import dev.keaneaudric.enderShare.listeners.EnderShareOfflineRestorationListener;
 import dev.keaneaudric.enderShare.listeners.EnderShareInventoryListener;
+import dev.keaneaudric.enderShare.listeners.EnderSharePlayerTrackingListener;
+import dev.keaneaudric.enderShare.listeners.EnderShareTabCompleteListener;
+import dev.keaneaudric.enderShare.manager.EnderShareBackup;
 import dev.keaneaudric.enderShare.manager.EnderShareManager;
+import dev.keaneaudric.enderShare.manager.EnderShareTrace;
+import dev.keaneaudric.enderShare.utils.EnderShareNameCache;
+import dev.keaneaudric.enderShare.utils.EnderSharePlayerIndex;
 import dev.keaneaudric.enderShare.utils.EnderShareTabCompleter;
 import org.bukkit.plugin.java.JavaPlugin;
 
@@ -26,9 +32,12 @@ public final class EnderShare extends JavaPlugin {
         // Save the default configuration file if one does not exist.
         saveDefaultConfig();
 
-        // Initialize sessions, pending restorations, and invitations.
+        // Start the opt-in trace recorder, then initialize sessions, pending restorations, and invitations.
+        EnderShareTrace.start(this);
         EnderShareManager.initialize(this);
         EnderShareManager.loadPendingRestorations();
+        EnderShareNameCache.initialize(this);
+        EnderSharePlayerIndex.initialize();
 
         // Register the /endershare command with its executor and tab completer.
         EnderShareCommand commandExecutor = new EnderShareCommand();
@@ -39,15 +48,25 @@ public final class EnderShare extends JavaPlugin {
         getServer().getPluginManager().registerEvents(new EnderShareListener(), this);
         getServer().getPluginManager().registerEvents(new EnderShareOfflineRestorationListener(), this);
         getServer().getPluginManager().registerEvents(new EnderShareInventoryListener(), this);
+        getServer().getPluginManager().registerEvents(new EnderSharePlayerTrackingListener(), this);
+        getServer().getPluginManager().registerEvents(new EnderShareTabCompleteListener(), this);
+
+        // Periodically checkpoint all sessions for fast startup, and back up changed records.
+        EnderShareManager.scheduleSnapshots();
+        EnderShareBackup.start(this);
     }
 
     /**
      * Called when the plugin is disabled.
-     * Saves any pending Ender Chest restorations to persistent storage.
+     * Flushes queued session writes, saves any pending Ender Chest restorations to persistent storage
+     * writes a snapshot of all sessions and stops the trace recorder.
      */
     @Override
     public void onDisable() {
+        EnderShareManager.flushPersistence();
         EnderShareManager.savePendingRestorations();
+        EnderShareManager.saveSnapshot();
+        EnderShareTrace.stop();
     }
 
     /**
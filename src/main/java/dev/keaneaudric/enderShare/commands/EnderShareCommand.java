@@ -1,8 +1,16 @@
 package dev.keaneaudric.enderShare.commands;
 
+import dev.keaneaudric.enderShare.manager.EnderShareBackup;
+import dev.keaneaudric.enderShare.manager.EnderShareItemIndex;
+import dev.keaneaudric.enderShare.manager.EnderShareMaintenance;
 import dev.keaneaudric.enderShare.manager.EnderShareManager;
 import dev.keaneaudric.enderShare.manager.EnderShareManager.PendingInvitation;
 import dev.keaneaudric.enderShare.manager.EnderShareSession;
+import dev.keaneaudric.enderShare.manager.EnderShareStorageBenchmark;
+import dev.keaneaudric.enderShare.manager.EnderShareTrace;
+import dev.keaneaudric.enderShare.manager.EnderShareTraceReplay;
+import dev.keaneaudric.enderShare.manager.EnderShareViewers;
+import dev.keaneaudric.enderShare.utils.EnderShareNameCache;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
@@ -12,9 +20,13 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
 /**
  * Command executor for the /endershare command.
- * Supports subcommands: invite, accept, unshare, and status.
+ * Supports subcommands: invite, accept, unshare, status, find, and admin.
  */
 public class EnderShareCommand implements CommandExecutor {
 
@@ -29,6 +41,10 @@ public class EnderShareCommand implements CommandExecutor {
      */
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        // Administrative subcommands may also be run from the console.
+        if (args.length >= 1 && args[0].equalsIgnoreCase("admin")) {
+            return handleAdmin(sender, args);
+        }
         // Only allow players to execute the command.
         if (!(sender instanceof Player)) {
             sender.sendMessage(ChatColor.RED + "Only players can execute this command.");
@@ -38,7 +54,7 @@ public class EnderShareCommand implements CommandExecutor {
 
         // Show usage if no subcommand is provided.
         if (args.length < 1) {
-            player.sendMessage(ChatColor.YELLOW + "Usage: /endershare <invite|accept|unshare|status>");
+            player.sendMessage(ChatColor.YELLOW + "Usage: /endershare <invite|accept|unshare|status|find>");
             return true;
         }
 
@@ -52,8 +68,10 @@ public class EnderShareCommand implements CommandExecutor {
                 return handleUnshare(player);
             case "status":
                 return handleStatus(player);
+            case "find":
+                return handleFind(player, args);
             default:
-                player.sendMessage(ChatColor.YELLOW + "Unknown subcommand. Use /endershare <invite|accept|unshare|status>");
+                player.sendMessage(ChatColor.YELLOW + "Unknown subcommand. Use /endershare <invite|accept|unshare|status|find>");
                 return true;
         }
     }
@@ -115,6 +133,10 @@ public class EnderShareCommand implements CommandExecutor {
             player.sendMessage(ChatColor.RED + "Inviter not found.");
             return true;
         }
+        if (EnderShareManager.isEditingLocked()) {
+            player.sendMessage(ChatColor.RED + "EnderShare storage is busy, please try again shortly.");
+            return true;
+        }
         PendingInvitation invitation = EnderShareManager.getPendingInvitation(player.getUniqueId());
         if (invitation == null || !invitation.getInviter().equals(inviter.getUniqueId())) {
             player.sendMessage(ChatColor.RED + "No valid invitation found from " + inviter.getName());
@@ -157,34 +179,26 @@ public class EnderShareCommand implements CommandExecutor {
             player.sendMessage(ChatColor.RED + "You are not currently in a sharing session.");
             return true;
         }
+        if (EnderShareManager.isEditingLocked()) {
+            player.sendMessage(ChatColor.RED + "EnderShare storage is busy, please try again shortly.");
+            return true;
+        }
         EnderShareSession session = EnderShareManager.getSession(player.getUniqueId());
         if (session != null) {
-            Inventory sharedInv = session.getSharedInventory();
-
-            ItemStack[] p1Items = new ItemStack[27];
-            ItemStack[] p2Items = new ItemStack[27];
+            // Close the shared inventory for everyone viewing it, saving its final contents.
+            EnderShareViewers.closeViewers(session);
+            // The snapshot is immutable, so its items can be handed out without copying the chest.
+            ItemStack[] contents = session.getContents();
 
             // Split the shared inventory: first half for one player...
-            for (int i = 0; i < 27; i++) {
-                p1Items[i] = sharedInv.getItem(i);
-            }
+            ItemStack[] p1Items = Arrays.copyOfRange(contents, 0, 27);
             // ...and second half for the other.
-            for (int i = 27; i < 54; i++) {
-                p2Items[i - 27] = sharedInv.getItem(i);
-            }
+            ItemStack[] p2Items = Arrays.copyOfRange(contents, 27, 54);
 
             // Retrieve the involved players (online check needed).
             Player p1 = Bukkit.getPlayer(session.getPlayer1());
             Player p2 = Bukkit.getPlayer(session.getPlayer2());
 
-            // Close the shared inventory if open.
-            if (p1 != null && p1.isOnline()) {
-                p1.closeInventory();
-            }
-            if (p2 != null && p2.isOnline()) {
-                p2.closeInventory();
-            }
-
             // Restore Ender Chest contents for player1.
             if (p1 != null && p1.isOnline()) {
                 p1.getEnderChest().clear();
@@ -209,6 +223,147 @@ public class EnderShareCommand implements CommandExecutor {
         return true;
     }
 
+    /**
+     * Processes the "admin" subcommand.
+     * Starts a maintenance task (export, import, compact or gc), takes or restores a backup,
+     * benchmarks storage against injected faults, replays a recorded trace, searches all shared chests,
+     * or shows the storage status.
+     *
+     * @param sender The sender issuing the command.
+     * @param args   The command arguments.
+     * @return true after processing.
+     */
+    private boolean handleAdmin(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("endershare.admin")) {
+            sender.sendMessage(ChatColor.RED + "You do not have permission to use this command.");
+            return true;
+        }
+        if (args.length < 2) {
+            sender.sendMessage(ChatColor.YELLOW + "Usage: /endershare admin <export|import|compact|gc|backup|restore|benchmark|replay|find|status>");
+            return true;
+        }
+        switch (args[1].toLowerCase()) {
+            case "export":
+                EnderShareMaintenance.export(sender);
+                return true;
+            case "import":
+                if (args.length < 3) {
+                    sender.sendMessage(ChatColor.YELLOW + "Usage: /endershare admin import <file>");
+                    return true;
+                }
+                EnderShareMaintenance.importArchive(sender, args[2]);
+                return true;
+            case "compact":
+                EnderShareMaintenance.compact(sender);
+                return true;
+            case "gc":
+                EnderShareMaintenance.collectGarbage(sender);
+                return true;
+            case "backup":
+                EnderShareBackup.backup(sender);
+                return true;
+            case "restore":
+                if (args.length < 3) {
+                    List<Long> generations = EnderShareBackup.generations();
+                    sender.sendMessage(ChatColor.YELLOW + "Usage: /endershare admin restore <generation>");
+                    sender.sendMessage(ChatColor.YELLOW + "Available generations: "
+                            + (generations.isEmpty() ? "none" : generations.toString()));
+                    return true;
+                }
+                try {
+                    EnderShareBackup.restore(sender, Long.parseLong(args[2]));
+                } catch (NumberFormatException e) {
+                    sender.sendMessage(ChatColor.RED + "Invalid generation: " + args[2]);
+                }
+                return true;
+            case "find":
+                return handleAdminFind(sender, args);
+            case "benchmark":
+                EnderShareStorageBenchmark.run(sender, Arrays.copyOfRange(args, 2, args.length));
+                return true;
+            case "replay":
+                EnderShareTraceReplay.run(sender, Arrays.copyOfRange(args, 2, args.length));
+                return true;
+            case "status":
+                sender.sendMessage(ChatColor.AQUA + "[EnderShare] " + EnderShareManager.getAllSessions().size()
+                        + " session(s); write queue: " + EnderShareManager.describePersistence()
+                        + "; " + EnderShareManager.describeOffHeapTier() + "; " + EnderShareTrace.describe());
+                return true;
+            default:
+                sender.sendMessage(ChatColor.YELLOW + "Unknown admin subcommand. Use /endershare admin <export|import|compact|gc|backup|restore|benchmark|replay|find|status>");
+                return true;
+        }
+    }
+
+    /**
+     * Processes the "find" subcommand.
+     * Lists the slots of the player's shared Ender Chest holding a given item.
+     *
+     * @param player The player searching.
+     * @param args   The command arguments.
+     * @return true after processing.
+     */
+    private boolean handleFind(Player player, String[] args) {
+        if (args.length < 2) {
+            player.sendMessage(ChatColor.YELLOW + "Usage: /endershare find <material|model:<id>|enchant:<name>>");
+            return true;
+        }
+        EnderShareSession session = EnderShareManager.getSession(player.getUniqueId());
+        if (session == null) {
+            player.sendMessage(ChatColor.RED + "You are not currently in a sharing session.");
+            return true;
+        }
+        String key = EnderShareItemIndex.parseQuery(args[1]);
+        if (key == null) {
+            player.sendMessage(ChatColor.RED + "Unknown item: " + args[1]);
+            return true;
+        }
+        if (!EnderShareItemIndex.contains(session.getSessionId())) {
+            player.sendMessage(ChatColor.YELLOW + "Your shared Ender Chest is still being indexed, please try again shortly.");
+            return true;
+        }
+        List<EnderShareItemIndex.Hit> hits = EnderShareItemIndex.find(key, session.getSessionId(), 54);
+        if (hits.isEmpty()) {
+            player.sendMessage(ChatColor.YELLOW + "No " + args[1] + " in your shared Ender Chest.");
+            return true;
+        }
+        StringBuilder slots = new StringBuilder();
+        int total = 0;
+        for (EnderShareItemIndex.Hit hit : hits) {
+            slots.append(slots.length() > 0 ? ", " : "").append(hit.slot + 1).append(" (x").append(hit.amount).append(')');
+            total += hit.amount;
+        }
+        player.sendMessage(ChatColor.GREEN + "Found " + total + " " + args[1] + " in slot(s): " + slots);
+        return true;
+    }
+
+    /**
+     * Processes the "admin find" subcommand.
+     * Lists the sessions and slots holding a given item across all shared Ender Chests.
+     *
+     * @param sender The sender searching.
+     * @param args   The command arguments.
+     * @return true after processing.
+     */
+    private boolean handleAdminFind(CommandSender sender, String[] args) {
+        if (args.length < 3) {
+            sender.sendMessage(ChatColor.YELLOW + "Usage: /endershare admin find <material|model:<id>|enchant:<name>>");
+            return true;
+        }
+        String key = EnderShareItemIndex.parseQuery(args[2]);
+        if (key == null) {
+            sender.sendMessage(ChatColor.RED + "Unknown item: " + args[2]);
+            return true;
+        }
+        List<EnderShareItemIndex.Hit> hits = EnderShareItemIndex.find(key, null, 20);
+        sender.sendMessage(ChatColor.AQUA + "[EnderShare] " + args[2] + " is held in "
+                + EnderShareItemIndex.countSessions(key) + " session(s)" + (hits.isEmpty() ? "." : ":"));
+        for (EnderShareItemIndex.Hit hit : hits) {
+            sender.sendMessage(ChatColor.AQUA + " " + hit.sessionId + " slot " + (hit.slot + 1) + " x" + hit.amount);
+        }
+        return true;
+    }
+
     /**
      * Processes the "status" subcommand.
      * Displays the name of the other participant in the active sharing session.
@@ -221,12 +376,15 @@ public class EnderShareCommand implements CommandExecutor {
             player.sendMessage(ChatColor.YELLOW + "You are not in an active sharing session.");
         } else {
             EnderShareSession currSession = EnderShareManager.getSession(player.getUniqueId());
-            String otherPlayer = Bukkit.getOfflinePlayer(
-                    currSession.getPlayer1().equals(player.getUniqueId())
-                            ? currSession.getPlayer2()
-                            : currSession.getPlayer1()
-            ).getName();
-            player.sendMessage(ChatColor.GREEN + "You are sharing with: " + otherPlayer);
+            UUID otherPlayer = currSession.getPlayer1().equals(player.getUniqueId())
+                    ? currSession.getPlayer2()
+                    : currSession.getPlayer1();
+            // The name may need an asynchronous lookup; reply once it is available.
+            EnderShareNameCache.resolve(otherPlayer, name -> {
+                if (player.isOnline()) {
+                    player.sendMessage(ChatColor.GREEN + "You are sharing with: " + name);
+                }
+            });
         }
         return true;
     }
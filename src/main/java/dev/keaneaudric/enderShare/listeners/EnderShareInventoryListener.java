@@ -3,76 +3,166 @@ package dev.keaneaudric.enderShare.listeners;
 import dev.keaneaudric.enderShare.EnderShare;
 import dev.keaneaudric.enderShare.manager.EnderShareManager;
 import dev.keaneaudric.enderShare.manager.EnderShareSession;
+import dev.keaneaudric.enderShare.manager.EnderShareSessionStore;
+import dev.keaneaudric.enderShare.manager.EnderShareTrace;
+import dev.keaneaudric.enderShare.manager.EnderShareViewers;
 import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.entity.HumanEntity;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryDragEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryOpenEvent;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.scheduler.BukkitTask;
 
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 /**
  * Listener for managing inventory events on the shared Ender Chest.
  * Handles click, drag, and close events with a debounce mechanism to
  * batch rapid changes before saving to persistent storage.
+ * Edits are refused while session writes are too far behind.
+ * Open and close events maintain the viewer registry, which lets the other
+ * handlers skip events that do not involve a shared chest with a single lookup.
+ * Events on shared chests are also passed to the trace recorder, which ignores them unless tracing is enabled.
  */
 public class EnderShareInventoryListener implements Listener {
     // Stores scheduled update tasks for sessions (used for debouncing).
     private final Map<EnderShareSession, BukkitTask> scheduledTasks = new HashMap<>();
 
-    // Delay in ticks for debouncing (20 ticks ~ 1 second).
+    // Default delay in ticks for debouncing (20 ticks ~ 1 second).
     private static final long DEBOUNCE_DELAY = 20L;
 
+    // Delay in ticks for debouncing used by this listener.
+    private final long debounceDelay;
+
+    // Store whose sessions are saved and whose queue decides whether editing is locked.
+    private final EnderShareSessionStore store;
+
+    // Minimum time between "saving" messages to the same player while editing is locked.
+    private static final long LOCK_MESSAGE_INTERVAL_MILLIS = 5000L;
+
+    // When each player was last told that editing is locked.
+    private final Map<UUID, Long> lockMessages = new HashMap<>();
+
+    /**
+     * Creates a listener for the live sessions with the default debounce delay.
+     */
+    public EnderShareInventoryListener() {
+        this(DEBOUNCE_DELAY, EnderShareManager.getStore());
+    }
+
+    /**
+     * Creates a listener for the sessions of a store. The trace replay uses its own store, with a shorter delay
+     * to match its speed-up.
+     *
+     * @param debounceDelay The debounce delay in ticks.
+     * @param store         The store whose sessions are saved.
+     */
+    public EnderShareInventoryListener(long debounceDelay, EnderShareSessionStore store) {
+        this.debounceDelay = Math.max(1L, debounceDelay);
+        this.store = store;
+    }
+
+    /**
+     * Registers the player as a viewer when the inventory being opened is a shared Ender Chest.
+     *
+     * @param event The inventory open event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryOpen(InventoryOpenEvent event) {
+        HumanEntity player = event.getPlayer();
+        Inventory inv = event.getView().getTopInventory();
+        EnderShareSession session = EnderShareManager.getSession(player.getUniqueId());
+        if (session != null && !session.holds(inv)) {
+            session = null;
+        }
+        if (session == null && "Shared Ender Chest".equals(event.getView().getTitle())) {
+            session = getSessionFromInventory(inv);
+        }
+        if (session != null) {
+            EnderShareViewers.open(player.getUniqueId(), session);
+            EnderShareTrace.recordView(player.getUniqueId(), session, true);
+        } else {
+            EnderShareViewers.close(player.getUniqueId());
+        }
+    }
+
     /**
      * Listens for item click events in the shared Ender Chest inventory.
-     * Schedules an inventory update after a debounce delay.
+     * Schedules an inventory update after a debounce delay, or cancels the click while editing is locked.
      *
      * @param event The inventory click event.
      */
     @EventHandler
     public void onInventoryClick(InventoryClickEvent event) {
-        String title = event.getView().getTitle();
-        if (!"Shared Ender Chest".equals(title)) return;
-        Inventory inv = event.getView().getTopInventory();
-        EnderShareSession session = getSessionFromInventory(inv);
+        EnderShareSession session = EnderShareViewers.getViewing(event.getWhoClicked().getUniqueId());
         if (session == null) return;
+        EnderShareTrace.recordClick(event.getWhoClicked().getUniqueId(), session, event.getRawSlot(), event.getAction().ordinal());
+        if (store.isEditingLocked()) {
+            event.setCancelled(true);
+            notifyLocked(event.getWhoClicked());
+            return;
+        }
         scheduleDebouncedUpdate(session);
     }
 
     /**
      * Listens for item drag events in the shared Ender Chest inventory.
-     * Schedules an inventory update after a debounce delay.
+     * Schedules an inventory update after a debounce delay, or cancels the drag while editing is locked.
      *
      * @param event The inventory drag event.
      */
     @EventHandler
     public void onInventoryDrag(InventoryDragEvent event) {
-        String title = event.getView().getTitle();
-        if (!"Shared Ender Chest".equals(title)) return;
-        Inventory inv = event.getView().getTopInventory();
-        EnderShareSession session = getSessionFromInventory(inv);
+        EnderShareSession session = EnderShareViewers.getViewing(event.getWhoClicked().getUniqueId());
         if (session == null) return;
+        int topSize = event.getView().getTopInventory().getSize();
+        long mask = 0;
+        for (int rawSlot : event.getRawSlots()) {
+            if (rawSlot < topSize) {
+                mask |= 1L << rawSlot;
+            }
+        }
+        EnderShareTrace.recordDrag(event.getWhoClicked().getUniqueId(), session, mask, event.getRawSlots().size());
+        if (store.isEditingLocked()) {
+            event.setCancelled(true);
+            notifyLocked(event.getWhoClicked());
+            return;
+        }
         scheduleDebouncedUpdate(session);
     }
 
     /**
      * Called when the shared Ender Chest inventory is closed.
-     * Cancels any pending update and forces an immediate save.
+     * Unregisters the viewer, cancels any pending update and forces an immediate save.
      *
      * @param event The inventory close event.
      */
     @EventHandler
     public void onInventoryClose(InventoryCloseEvent event) {
-        String title = event.getView().getTitle();
-        if (!"Shared Ender Chest".equals(title)) return;
-        Inventory inv = event.getView().getTopInventory();
-        EnderShareSession session = getSessionFromInventory(inv);
+        EnderShareSession session = EnderShareViewers.close(event.getPlayer().getUniqueId());
+        lockMessages.remove(event.getPlayer().getUniqueId());
         if (session == null) return;
+        EnderShareTrace.recordView(event.getPlayer().getUniqueId(), session, false);
+        flushUpdate(session);
+    }
+
+    /**
+     * Cancels any pending update for a session and saves it immediately, as closing its chest does.
+     *
+     * @param session The EnderShare session to save.
+     */
+    public void flushUpdate(EnderShareSession session) {
+        // The session may have ended while the inventory was open.
+        if (store.getSession(session.getPlayer1()) != session) return;
 
         // Cancel any scheduled update for this session.
         if (scheduledTasks.containsKey(session)) {
@@ -80,7 +170,23 @@ public class EnderShareInventoryListener implements Listener {
             scheduledTasks.remove(session);
         }
         // Immediately update the session inventory.
-        EnderShareManager.updateSessionInventory(inv, session);
+        store.updateSessionInventory(session.getSharedInventory(), session);
+    }
+
+    /**
+     * Tells a player that the shared Ender Chest is locked, at most once per interval,
+     * so bursts of cancelled clicks and drags do not flood their chat.
+     *
+     * @param player The player whose edit was cancelled.
+     */
+    private void notifyLocked(HumanEntity player) {
+        long now = System.currentTimeMillis();
+        Long last = lockMessages.get(player.getUniqueId());
+        if (last != null && now - last < LOCK_MESSAGE_INTERVAL_MILLIS) {
+            return;
+        }
+        lockMessages.put(player.getUniqueId(), now);
+        player.sendMessage(ChatColor.RED + "The shared Ender Chest is saving, please wait a moment.");
     }
 
     /**
@@ -88,21 +194,33 @@ public class EnderShareInventoryListener implements Listener {
      *
      * @param session The EnderShare session to update.
      */
-    private void scheduleDebouncedUpdate(final EnderShareSession session) {
+    public void scheduleDebouncedUpdate(final EnderShareSession session) {
         // Cancel any previously scheduled update.
         if (scheduledTasks.containsKey(session)) {
             scheduledTasks.get(session).cancel();
         }
         // Schedule a new update after the debounce delay.
         BukkitTask task = Bukkit.getScheduler().runTaskLater(EnderShare.getInstance(), () -> {
-            EnderShareManager.updateSessionInventory(session.getSharedInventory(), session);
             scheduledTasks.remove(session);
-        }, DEBOUNCE_DELAY);
+            if (store.getSession(session.getPlayer1()) == session) {
+                store.updateSessionInventory(session.getSharedInventory(), session);
+            }
+        }, debounceDelay);
         scheduledTasks.put(session, task);
     }
 
+    /**
+     * Returns whether any debounced update is still waiting to run.
+     *
+     * @return true if an update is scheduled.
+     */
+    public boolean hasScheduledUpdates() {
+        return !scheduledTasks.isEmpty();
+    }
+
     /**
      * Retrieves the EnderShare session associated with a given inventory.
+     * Only used when an inventory is opened by someone other than the session's participants.
      *
      * @param inventory The inventory to match.
      * @return The corresponding EnderShareSession, or null if none match.
@@ -110,10 +228,10 @@ public class EnderShareInventoryListener implements Listener {
     private EnderShareSession getSessionFromInventory(Inventory inventory) {
         Collection<EnderShareSession> sessions = EnderShareManager.getAllSessions();
         for (EnderShareSession session : sessions) {
-            if (session.getSharedInventory() == inventory) {
+            if (session.holds(inventory)) {
                 return session;
             }
         }
         return null;
     }
-}
\ No newline at end of file
+}
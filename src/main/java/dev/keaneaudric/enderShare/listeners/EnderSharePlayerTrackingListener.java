@@ -0,0 +1,45 @@
+package dev.keaneaudric.enderShare.listeners;
+
+import dev.keaneaudric.enderShare.manager.EnderShareTrace;
+import dev.keaneaudric.enderShare.utils.EnderShareNameCache;
+import dev.keaneaudric.enderShare.utils.EnderSharePlayerIndex;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Listener that keeps EnderShare's name cache and online player index up to date as players join and quit.
+ * Joins and quits are also passed to the trace recorder.
+ */
+public class EnderSharePlayerTrackingListener implements Listener {
+
+    /**
+     * Records the joining player's current name.
+     *
+     * @param event The player join event.
+     */
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        EnderShareNameCache.put(player.getUniqueId(), player.getName());
+        EnderSharePlayerIndex.add(player.getName());
+        EnderShareTrace.recordPresence(player.getUniqueId(), true);
+    }
+
+    /**
+     * Refreshes the leaving player's name so it stays cached after they go offline,
+     * and removes it from the online player index.
+     *
+     * @param event The player quit event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        Player player = event.getPlayer();
+        EnderShareNameCache.put(player.getUniqueId(), player.getName());
+        EnderSharePlayerIndex.remove(player.getName());
+        EnderShareTrace.recordPresence(player.getUniqueId(), false);
+    }
+}
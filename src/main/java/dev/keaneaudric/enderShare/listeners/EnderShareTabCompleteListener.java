@@ -0,0 +1,39 @@
+package dev.keaneaudric.enderShare.listeners;
+
+import com.destroystokyo.paper.event.server.AsyncTabCompleteEvent;
+import dev.keaneaudric.enderShare.utils.EnderShareTabCompleter;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+
+/**
+ * Serves /endershare tab completion from Paper's asynchronous tab completion event,
+ * so suggestions are computed off the main thread.
+ */
+public class EnderShareTabCompleteListener implements Listener {
+
+    /**
+     * Completes /endershare command lines. Other command lines are left to the server.
+     *
+     * @param event The asynchronous tab completion event.
+     */
+    @EventHandler(ignoreCancelled = true)
+    public void onAsyncTabComplete(AsyncTabCompleteEvent event) {
+        if (!event.isCommand() || event.isHandled()) {
+            return;
+        }
+        String buffer = event.getBuffer();
+        int start = buffer.startsWith("/") ? 1 : 0;
+        int space = buffer.indexOf(' ', start);
+        if (space < 0) {
+            return;
+        }
+        String label = buffer.substring(start, space);
+        if (!label.equalsIgnoreCase("endershare") && !label.equalsIgnoreCase("endershare:endershare")) {
+            return;
+        }
+        // Keep a trailing empty token so completion of a fresh argument works.
+        String[] args = buffer.substring(space + 1).split(" ", -1);
+        event.setCompletions(EnderShareTabCompleter.complete(event.getSender(), args));
+        event.setHandled(true);
+    }
+}
@@ -0,0 +1,192 @@
+package dev.keaneaudric.enderShare.manager;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Portable single-file archive of EnderShare data, written and read as a stream of records.
+ * <pre>
+ *   gzip( int magic, int version,
+ *         records: byte type, fields...,
+ *         byte END )
+ * </pre>
+ * Session and restoration records carry their contents in stored form together with the
+ * format and checksum, and every compression dictionary is included so the archive can be
+ * imported on a server that has never seen it.
+ */
+class EnderShareArchive {
+
+    private static final int MAGIC = 0x45534152; // "ESAR"
+    private static final int VERSION = 1;
+
+    static final byte TYPE_END = 0;
+    static final byte TYPE_SESSION = 1;
+    static final byte TYPE_RESTORATION = 2;
+    static final byte TYPE_DICTIONARY = 3;
+
+    /**
+     * A record read from an archive. Only the fields relevant to its type are set.
+     */
+    static class Entry {
+        byte type;
+        String sessionId;
+        UUID player1;
+        UUID player2;
+        int format;
+        String checksum;
+        String contents;
+        byte[] dictionary;
+    }
+
+    private EnderShareArchive() {
+    }
+
+    /**
+     * Checks whether a session ID read from an archive can safely name a file in the "chestdata" folder.
+     *
+     * @param sessionId The session ID.
+     * @return true if the ID is not empty and holds no path separators or parent references.
+     */
+    static boolean isSafeSessionId(String sessionId) {
+        return !sessionId.isEmpty() && sessionId.indexOf('/') < 0 && sessionId.indexOf('\\') < 0
+                && sessionId.indexOf('\0') < 0 && !sessionId.contains("..");
+    }
+
+    /**
+     * Streams records into an archive file.
+     */
+    static class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        Writer(File file) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        void writeDictionary(byte[] dictionary) throws IOException {
+            out.writeByte(TYPE_DICTIONARY);
+            out.writeInt(dictionary.length);
+            out.write(dictionary);
+        }
+
+        void writeSession(String sessionId, UUID player1, UUID player2, int format, String contents) throws IOException {
+            out.writeByte(TYPE_SESSION);
+            out.writeUTF(sessionId);
+            writeUuid(player1);
+            writeUuid(player2);
+            writeContents(format, contents);
+        }
+
+        void writeRestoration(UUID player, int format, String contents) throws IOException {
+            out.writeByte(TYPE_RESTORATION);
+            writeUuid(player);
+            writeContents(format, contents);
+        }
+
+        private void writeUuid(UUID uuid) throws IOException {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+
+        private void writeContents(int format, String contents) throws IOException {
+            byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(format);
+            out.writeUTF(EnderShareManager.checksum(contents));
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.writeByte(TYPE_END);
+            out.close();
+        }
+    }
+
+    /**
+     * Streams records out of an archive file.
+     */
+    static class Reader implements Closeable {
+        private final DataInputStream in;
+        private boolean finished;
+
+        Reader(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+            if (in.readInt() != MAGIC) {
+                in.close();
+                throw new IOException("not an EnderShare archive");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                in.close();
+                throw new IOException("unsupported archive version " + version);
+            }
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return The next record, or null at the end of the archive.
+         * @throws IOException If the archive is truncated or a record fails its checksum.
+         */
+        Entry next() throws IOException {
+            if (finished) {
+                return null;
+            }
+            Entry entry = new Entry();
+            entry.type = in.readByte();
+            switch (entry.type) {
+                case TYPE_END:
+                    finished = true;
+                    return null;
+                case TYPE_DICTIONARY:
+                    entry.dictionary = readBytes();
+                    return entry;
+                case TYPE_SESSION:
+                    entry.sessionId = in.readUTF();
+                    entry.player1 = readUuid();
+                    entry.player2 = readUuid();
+                    readContents(entry);
+                    return entry;
+                case TYPE_RESTORATION:
+                    entry.player1 = readUuid();
+                    readContents(entry);
+                    return entry;
+                default:
+                    throw new IOException("unknown record type " + entry.type);
+            }
+        }
+
+        private UUID readUuid() throws IOException {
+            return new UUID(in.readLong(), in.readLong());
+        }
+
+        private byte[] readBytes() throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("invalid record length");
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        private void readContents(Entry entry) throws IOException {
+            entry.format = in.readInt();
+            entry.checksum = in.readUTF();
+            entry.contents = new String(readBytes(), StandardCharsets.UTF_8);
+            if (!entry.checksum.equals(EnderShareManager.checksum(entry.contents))) {
+                throw new IOException("checksum mismatch in archive record");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Continuous, incremental backups of sessions and pending restorations.
+ * <pre>
+ *   backups/objects/&lt;sha-256&gt;       one stored record, named after its content hash
+ *   backups/gen-&lt;n&gt;.manifest         one line per record: "session|restoration &lt;key&gt; &lt;hash&gt;"
+ * </pre>
+ * The state is captured on the main thread from memory, so a backup never sees a half-written file.
+ * The main thread only takes the immutable contents snapshots of sessions saved since the previous backup
+ * and of restorations that changed since; encoding and hashing happen on a background thread, and only
+ * records whose hash is not already stored are written, within the configured bytes per second.
+ * A generation becomes visible when its manifest is written; older generations beyond the configured
+ * count are dropped together with objects no remaining manifest refers to.
+ */
+public class EnderShareBackup {
+
+    private static final String SESSION = "session";
+    private static final String RESTORATION = "restoration";
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    // Revision and hash of each session at the last backup, so unchanged sessions are not encoded again.
+    // Only accessed from the main thread.
+    private static final Map<String, BackedUp> backedUp = new HashMap<>();
+
+    // Items and hash of each pending restoration at the last backup. Restoration arrays are replaced,
+    // never modified, so an identical array means an unchanged restoration. Only accessed from the main thread.
+    private static final Map<String, BackedUpRestoration> backedUpRestorations = new HashMap<>();
+
+    private static JavaPlugin plugin;
+
+    private static final class BackedUp {
+        final int revision;
+        final String hash;
+
+        BackedUp(int revision, String hash) {
+            this.revision = revision;
+            this.hash = hash;
+        }
+    }
+
+    private static final class BackedUpRestoration {
+        final ItemStack[] items;
+        final String hash;
+
+        BackedUpRestoration(ItemStack[] items, String hash) {
+            this.items = items;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * A record in a backup: its kind and key, and either what to encode it from or the hash of an unchanged copy.
+     */
+    private static final class Item {
+        final String kind;
+        final String key;
+        final int revision;
+        String hash;
+
+        // Set for sessions to encode.
+        UUID player1;
+        UUID player2;
+        byte[] stored;
+        int storedChecksum;
+
+        // Session contents snapshot or restoration items; kept for restorations to detect later changes.
+        ItemStack[] contents;
+
+        Item(String kind, String key, int revision) {
+            this.kind = kind;
+            this.key = key;
+            this.revision = revision;
+        }
+    }
+
+    private EnderShareBackup() {
+    }
+
+    /**
+     * Schedules periodic backups, if enabled.
+     *
+     * @param p The plugin instance.
+     */
+    public static void start(JavaPlugin p) {
+        plugin = p;
+        if (!plugin.getConfig().getBoolean("backup.enabled", true)) {
+            return;
+        }
+        long interval = Math.max(1, plugin.getConfig().getLong("backup.interval_minutes", 30)) * 60L * 20L;
+        Bukkit.getScheduler().runTaskTimer(plugin, () -> backup(null), interval, interval);
+    }
+
+    /**
+     * Starts a backup. Must be called on the main thread.
+     *
+     * @param sender The sender to report to, or null for scheduled backups.
+     */
+    public static void backup(CommandSender sender) {
+        if (!running.compareAndSet(false, true)) {
+            if (sender != null) {
+                sender.sendMessage(ChatColor.RED + "An EnderShare backup or restore is already running.");
+            }
+            return;
+        }
+        List<Item> items;
+        try {
+            items = capture();
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+        if (sender != null) {
+            sender.sendMessage(ChatColor.YELLOW + "Started EnderShare backup...");
+        }
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                long started = System.currentTimeMillis();
+                long[] written = write(items);
+                // Bookkeeping is updated on the main thread before another backup may start.
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    backedUpRestorations.clear();
+                    for (Item item : items) {
+                        if (item.kind.equals(SESSION)) {
+                            backedUp.put(item.key, new BackedUp(item.revision, item.hash));
+                        } else {
+                            backedUpRestorations.put(item.key, new BackedUpRestoration(item.contents, item.hash));
+                        }
+                    }
+                    running.set(false);
+                });
+                String message = "EnderShare backup generation " + written[0] + " complete: " + items.size()
+                        + " record(s), " + written[1] + " new, " + written[2] / 1024 + " KiB written in "
+                        + (System.currentTimeMillis() - started) + " ms.";
+                plugin.getLogger().info(message);
+                send(sender, ChatColor.GREEN + message);
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().warning("EnderShare backup failed: " + e.getMessage());
+                send(sender, ChatColor.RED + "EnderShare backup failed: " + e.getMessage());
+                Bukkit.getScheduler().runTask(plugin, () -> running.set(false));
+            }
+        });
+    }
+
+    /**
+     * Lists the available backup generations.
+     *
+     * @return Generation numbers, oldest first.
+     */
+    public static List<Long> generations() {
+        List<Long> generations = new ArrayList<>();
+        File[] manifests = backupFolder().listFiles((dir, name) -> name.startsWith("gen-") && name.endsWith(".manifest"));
+        if (manifests != null) {
+            for (File manifest : manifests) {
+                String name = manifest.getName();
+                try {
+                    generations.add(Long.parseLong(name.substring("gen-".length(), name.length() - ".manifest".length())));
+                } catch (NumberFormatException ignored) {
+                    // Not a manifest written by EnderShare.
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    /**
+     * Rebuilds all sessions and pending restorations from a backup generation.
+     * Records are read and verified in the background; the state is replaced on the main thread.
+     *
+     * @param sender     The sender to report to.
+     * @param generation The generation to restore.
+     */
+    public static void restore(CommandSender sender, long generation) {
+        if (EnderShareMaintenance.isRunning() || !running.compareAndSet(false, true)) {
+            sender.sendMessage(ChatColor.RED + "An EnderShare backup or maintenance task is already running.");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Restoring EnderShare backup generation " + generation + "...");
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                File chestDataFolder = new File(plugin.getDataFolder(), "chestdata");
+                List<EnderShareStoreCursor.Record> sessionRecords = new ArrayList<>();
+                List<ItemStack[]> sessionContents = new ArrayList<>();
+                Map<UUID, ItemStack[]> restorations = new HashMap<>();
+                for (String[] line : readManifest(generation)) {
+                    String record = readObject(line[2]);
+                    if (line[0].equals(SESSION)) {
+                        EnderShareStoreCursor.Record parsed = EnderShareStoreCursor.parse(
+                                new File(chestDataFolder, line[1] + ".yml"), record);
+                        parsed.verify();
+                        sessionRecords.add(parsed);
+                        sessionContents.add(parsed.decode());
+                    } else if (line[0].equals(RESTORATION)) {
+                        YamlConfiguration config = new YamlConfiguration();
+                        config.loadFromString(record);
+                        restorations.put(UUID.fromString(line[1]), EnderShareManager.decodeItemArray(
+                                config.getString("contents"), config.getInt("format"), 27));
+                    }
+                }
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    List<EnderShareSession> sessions = new ArrayList<>();
+                    for (int i = 0; i < sessionRecords.size(); i++) {
+                        EnderShareStoreCursor.Record record = sessionRecords.get(i);
+                        Inventory inv = Bukkit.createInventory(null, 54, "Shared Ender Chest");
+                        inv.setContents(sessionContents.get(i));
+                        sessions.add(new EnderShareSession(record.player1, record.player2, inv, record.sessionId));
+                    }
+                    EnderShareManager.replaceState(sessions, restorations);
+                    backedUp.clear();
+                    backedUpRestorations.clear();
+                    running.set(false);
+                    String message = "Restored " + sessions.size() + " session(s) and " + restorations.size()
+                            + " pending restoration(s) from backup generation " + generation + ".";
+                    plugin.getLogger().info(message);
+                    sender.sendMessage(ChatColor.GREEN + message);
+                });
+            } catch (Exception e) {
+                running.set(false);
+                plugin.getLogger().warning("EnderShare restore failed: " + e.getMessage());
+                send(sender, ChatColor.RED + "EnderShare restore failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Collects the records to back up. Sessions whose revision has not changed and restorations whose
+     * items have not changed since the last backup reuse their previous hash. Changed sessions contribute
+     * their published contents snapshot, or a copy of their encoded contents if they are not materialized;
+     * nothing is encoded or hashed here.
+     *
+     * @return The records of this backup.
+     */
+    private static List<Item> capture() {
+        List<Item> items = new ArrayList<>();
+        for (EnderShareSession session : EnderShareManager.getAllSessions()) {
+            Item item = new Item(SESSION, session.getSessionId(), session.getRevision());
+            BackedUp previous = backedUp.get(session.getSessionId());
+            if (previous != null && previous.revision == item.revision) {
+                item.hash = previous.hash;
+            } else {
+                item.player1 = session.getPlayer1();
+                item.player2 = session.getPlayer2();
+                ByteBuffer stored = session.getStoredContents();
+                if (stored != null) {
+                    item.stored = new byte[stored.remaining()];
+                    stored.get(item.stored);
+                    item.storedChecksum = session.getStoredChecksum();
+                } else {
+                    item.contents = session.getContents();
+                }
+            }
+            items.add(item);
+        }
+        for (Map.Entry<UUID, ItemStack[]> entry : EnderShareManager.getPendingRestorations().entrySet()) {
+            Item item = new Item(RESTORATION, entry.getKey().toString(), 0);
+            item.contents = entry.getValue();
+            BackedUpRestoration previous = backedUpRestorations.get(item.key);
+            if (previous != null && previous.items == item.contents) {
+                item.hash = previous.hash;
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * Encodes a changed record. Runs on the backup thread.
+     * Stored contents that fail their checksum are read from the session file instead; if that fails too,
+     * the backup fails rather than storing an empty chest.
+     *
+     * @param item The record to encode.
+     * @return The stored record.
+     * @throws IOException If the session's contents cannot be read.
+     */
+    private static byte[] encode(Item item) throws IOException {
+        if (item.kind.equals(RESTORATION)) {
+            String contents = EnderShareManager.serializeItemArray(item.contents);
+            return ("format: " + EnderShareCompression.FORMAT_ENVELOPE + "\n"
+                    + "checksum: '" + EnderShareManager.checksum(contents) + "'\n"
+                    + "contents: '" + contents + "'\n").getBytes(StandardCharsets.UTF_8);
+        }
+        ItemStack[] contents = item.contents;
+        if (contents == null) {
+            CRC32 crc = new CRC32();
+            crc.update(item.stored);
+            try {
+                if ((int) crc.getValue() != item.storedChecksum) {
+                    throw new IOException("checksum mismatch");
+                }
+                contents = EnderShareItemCodec.decode(item.stored, 0, item.stored.length, 54);
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().warning("Stored contents of session " + item.key + " are unusable ("
+                        + e.getMessage() + "), reading its file instead.");
+                try {
+                    contents = EnderShareManager.readSessionFile(item.key);
+                } catch (IOException fileError) {
+                    throw new IOException("session " + item.key + " could not be read: " + fileError.getMessage(), fileError);
+                }
+            }
+        }
+        return EnderShareManager.sessionRecordBytes(item.key, item.player1, item.player2, contents);
+    }
+
+    /**
+     * Stores new records and the manifest of a new generation, then drops old generations.
+     *
+     * @param items The records of this backup.
+     * @return The generation number, the number of new objects and the bytes written.
+     * @throws IOException If the backup cannot be written.
+     */
+    private static long[] write(List<Item> items) throws IOException {
+        File objects = new File(backupFolder(), "objects");
+        if (!objects.exists()) {
+            objects.mkdirs();
+        }
+        long bytesPerSecond = Math.max(1024L, plugin.getConfig().getLong("backup.bytes_per_second", 1048576L));
+        long started = System.currentTimeMillis();
+        long bytesWritten = 0;
+        long newObjects = 0;
+        StringBuilder manifest = new StringBuilder();
+        for (Item item : items) {
+            if (item.hash == null) {
+                byte[] data = encode(item);
+                item.hash = sha256(data);
+                File object = new File(objects, item.hash);
+                if (!object.exists()) {
+                    writeAtomically(object, data);
+                    bytesWritten += data.length;
+                    newObjects++;
+                    // Stay within the configured write rate.
+                    long due = started + bytesWritten * 1000L / bytesPerSecond;
+                    long now = System.currentTimeMillis();
+                    if (due > now) {
+                        try {
+                            Thread.sleep(due - now);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("backup interrupted");
+                        }
+                    }
+                }
+                item.stored = null;
+                if (item.kind.equals(SESSION)) {
+                    item.contents = null;
+                }
+            }
+            manifest.append(item.kind).append(' ').append(item.key).append(' ').append(item.hash).append('\n');
+        }
+        List<Long> generations = generations();
+        long generation = generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1;
+        byte[] manifestData = manifest.toString().getBytes(StandardCharsets.UTF_8);
+        writeAtomically(manifestFile(generation), manifestData);
+        bytesWritten += manifestData.length;
+        prune();
+        return new long[]{generation, newObjects, bytesWritten};
+    }
+
+    /**
+     * Deletes generations beyond the configured count and every object no remaining manifest refers to.
+     *
+     * @throws IOException If a manifest cannot be read.
+     */
+    private static void prune() throws IOException {
+        int keep = Math.max(1, plugin.getConfig().getInt("backup.generations", 48));
+        List<Long> generations = generations();
+        for (int i = 0; i < generations.size() - keep; i++) {
+            manifestFile(generations.get(i)).delete();
+        }
+        Set<String> referenced = new HashSet<>();
+        for (long generation : generations()) {
+            for (String[] line : readManifest(generation)) {
+                referenced.add(line[2]);
+            }
+        }
+        File[] objects = new File(backupFolder(), "objects").listFiles();
+        if (objects != null) {
+            for (File object : objects) {
+                if (!referenced.contains(object.getName())) {
+                    object.delete();
+                }
+            }
+        }
+    }
+
+    private static List<String[]> readManifest(long generation) throws IOException {
+        File manifest = manifestFile(generation);
+        if (!manifest.exists()) {
+            throw new IOException("backup generation " + generation + " does not exist");
+        }
+        List<String[]> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            String[] parts = line.split(" ");
+            if (parts.length != 3) {
+                throw new IOException("malformed manifest line in generation " + generation);
+            }
+            lines.add(parts);
+        }
+        return lines;
+    }
+
+    private static String readObject(String hash) throws IOException {
+        byte[] data = Files.readAllBytes(new File(new File(backupFolder(), "objects"), hash).toPath());
+        if (!sha256(data).equals(hash)) {
+            throw new IOException("backup object " + hash + " is corrupt");
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeAtomically(File file, byte[] data) throws IOException {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+        Files.write(temp, data);
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static File backupFolder() {
+        return new File(plugin.getDataFolder(), "backups");
+    }
+
+    private static File manifestFile(long generation) {
+        return new File(backupFolder(), String.format("gen-%06d.manifest", generation));
+    }
+
+    private static void send(CommandSender sender, String text) {
+        if (sender != null) {
+            Bukkit.getScheduler().runTask(plugin, () -> sender.sendMessage(text));
+        }
+    }
+}
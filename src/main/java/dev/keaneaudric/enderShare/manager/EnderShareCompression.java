@@ -0,0 +1,388 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression layer for stored session contents and pending restorations.
+ * Records are wrapped in a small Base64 envelope (format 3) holding the envelope version,
+ * the codec, the dictionary id and the optionally compressed payload.
+ * Records stored as plain YAML text (format 2) are still readable.
+ * The dictionary codec uses a preset deflate dictionary trained from existing chest data.
+ * Dictionaries are trained on the item codec's uncompressed NBT; dictionaries trained by earlier
+ * versions on gzip-compressed items are kept for reading old records but never become active.
+ */
+final class EnderShareCompression {
+
+    // Storage format for records holding YAML text without an envelope.
+    static final int FORMAT_PLAIN = 2;
+    // Storage format for records wrapped in an envelope.
+    static final int FORMAT_ENVELOPE = 3;
+
+    // Envelope holding YAML text, written before the binary item codec.
+    private static final byte ENVELOPE_YAML = 1;
+    // Envelope holding items encoded by EnderShareItemCodec.
+    private static final byte ENVELOPE_BINARY = 2;
+
+    private static final byte CODEC_NONE = 0;
+    private static final byte CODEC_DEFLATE = 1;
+    private static final byte CODEC_DICTIONARY = 2;
+
+    // Minimum number of samples required before a dictionary is trained.
+    private static final int MIN_TRAINING_SAMPLES = 8;
+    // Length and stride of the segments counted while training a dictionary.
+    private static final int SEGMENT_LENGTH = 32;
+    private static final int SEGMENT_STRIDE = 8;
+
+    // File suffix of dictionaries trained on uncompressed item NBT, the only ones used for new records.
+    private static final String TRAINED_SUFFIX = ".nbt.dict";
+
+    // Deflaters and inflaters are reused per thread to avoid native allocations on every record.
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    // Known dictionaries keyed by their Adler-32 id, kept so older records stay readable after retraining.
+    private static final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+
+    private static File dictionaryFolder;
+    private static byte codec = CODEC_NONE;
+    private static int level = Deflater.DEFAULT_COMPRESSION;
+    private static int dictionarySize = 32768;
+    // Dictionary new records are compressed with, or null. Its id and bytes are swapped together.
+    private static volatile Dictionary activeDictionary;
+
+    private EnderShareCompression() {
+    }
+
+    /**
+     * A trained dictionary and its id, published as one object so readers never pair the id of one
+     * dictionary with the bytes of another.
+     */
+    private static final class Dictionary {
+        final int id;
+        final byte[] bytes;
+
+        Dictionary(int id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Reads the compression settings and loads any previously trained dictionaries.
+     *
+     * @param plugin The plugin instance.
+     */
+    static void configure(JavaPlugin plugin) {
+        String codecName = plugin.getConfig().getString("compression.codec", "none").toLowerCase(Locale.ROOT);
+        switch (codecName) {
+            case "deflate":
+                codec = CODEC_DEFLATE;
+                break;
+            case "dictionary":
+                codec = CODEC_DICTIONARY;
+                break;
+            case "none":
+                codec = CODEC_NONE;
+                break;
+            default:
+                plugin.getLogger().warning("Unknown compression codec '" + codecName + "', storing records uncompressed.");
+                codec = CODEC_NONE;
+        }
+        level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION,
+                plugin.getConfig().getInt("compression.level", 6)));
+        dictionarySize = Math.max(1024, Math.min(32768, plugin.getConfig().getInt("compression.dictionary_size", 32768)));
+
+        dictionaries.clear();
+        activeDictionary = null;
+        dictionaryFolder = new File(plugin.getDataFolder(), "dictionaries");
+        File[] files = dictionaryFolder.listFiles((dir, name) -> name.endsWith(".dict"));
+        if (files == null) {
+            return;
+        }
+        long newest = Long.MIN_VALUE;
+        Dictionary newestDictionary = null;
+        for (File file : files) {
+            try {
+                byte[] dictionary = Files.readAllBytes(file.toPath());
+                int id = dictionaryId(dictionary);
+                dictionaries.put(id, dictionary);
+                if (file.getName().endsWith(TRAINED_SUFFIX) && file.lastModified() > newest) {
+                    newest = file.lastModified();
+                    newestDictionary = new Dictionary(id, dictionary);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        activeDictionary = newestDictionary;
+    }
+
+    /**
+     * Returns whether the dictionary codec is selected but has no trained dictionary yet.
+     *
+     * @return true if a dictionary should be trained.
+     */
+    static boolean needsDictionary() {
+        return codec == CODEC_DICTIONARY && activeDictionary == null;
+    }
+
+    /**
+     * Returns whether the dictionary codec is selected.
+     *
+     * @return true if records are compressed with a trained dictionary.
+     */
+    static boolean usesDictionary() {
+        return codec == CODEC_DICTIONARY;
+    }
+
+    /**
+     * Returns every known dictionary, including retired ones still referenced by older records.
+     *
+     * @return A snapshot of the known dictionaries.
+     */
+    static Collection<byte[]> knownDictionaries() {
+        return new ArrayList<>(dictionaries.values());
+    }
+
+    /**
+     * Registers a dictionary imported from elsewhere so records compressed with it can be read.
+     * The dictionary is stored but does not become the active one.
+     *
+     * @param dictionary The dictionary bytes.
+     * @throws IOException If the dictionary cannot be stored.
+     */
+    static void registerDictionary(byte[] dictionary) throws IOException {
+        int id = dictionaryId(dictionary);
+        if (dictionaries.putIfAbsent(id, dictionary) != null) {
+            return;
+        }
+        if (!dictionaryFolder.exists()) {
+            dictionaryFolder.mkdirs();
+        }
+        File file = new File(dictionaryFolder, Integer.toHexString(id) + ".dict");
+        Files.write(file.toPath(), dictionary);
+        // The newest file becomes active on startup; keep imported dictionaries out of the running.
+        file.setLastModified(0L);
+    }
+
+    /**
+     * A decoded envelope payload. The bytes live in a thread-local buffer and are only valid
+     * until the next call on the same thread.
+     */
+    static final class Payload {
+        final int version;
+        final byte[] data;
+        final int offset;
+        final int length;
+
+        Payload(int version, byte[] data, int offset, int length) {
+            this.version = version;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Returns whether the payload holds YAML text written before the binary item codec.
+         *
+         * @return true for YAML payloads.
+         */
+        boolean isYaml() {
+            return version == ENVELOPE_YAML;
+        }
+    }
+
+    /**
+     * Wraps encoded items in an envelope using the configured codec.
+     * Falls back to plain deflate while no dictionary has been trained.
+     *
+     * @param raw The encoded items.
+     * @return The Base64 envelope, stored with format {@link #FORMAT_ENVELOPE}.
+     */
+    static String encode(EnderShareItemCodec.Buffer raw) {
+        EnderShareItemCodec.Buffer out = envelope(raw);
+        ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(out.data, 0, out.length));
+        return new String(encoded.array(), 0, encoded.limit(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Wraps encoded items in an envelope and appends it to a buffer in Base64, without creating a String.
+     *
+     * @param raw    The encoded items.
+     * @param target The buffer receiving the Base64 envelope; must not be the encode or scratch buffer.
+     */
+    static void encodeTo(EnderShareItemCodec.Buffer raw, EnderShareItemCodec.Buffer target) {
+        EnderShareItemCodec.Buffer out = envelope(raw);
+        target.writeBase64(out.data, 0, out.length);
+    }
+
+    // Builds the envelope in the calling thread's scratch buffer.
+    private static EnderShareItemCodec.Buffer envelope(EnderShareItemCodec.Buffer raw) {
+        Dictionary dictionary = codec == CODEC_DICTIONARY ? activeDictionary : null;
+        byte recordCodec = codec == CODEC_NONE ? CODEC_NONE : dictionary != null ? CODEC_DICTIONARY : CODEC_DEFLATE;
+
+        EnderShareItemCodec.Buffer out = EnderShareItemCodec.scratch();
+        out.write(ENVELOPE_BINARY);
+        out.write(recordCodec);
+        out.writeInt(dictionary != null ? dictionary.id : 0);
+        out.writeInt(raw.length);
+        if (recordCodec == CODEC_NONE) {
+            out.write(raw.data, 0, raw.length);
+        } else {
+            Deflater deflater = DEFLATERS.get();
+            deflater.reset();
+            deflater.setLevel(level);
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary.bytes);
+            }
+            deflater.setInput(raw.data, 0, raw.length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.ensure(4096);
+                out.length += deflater.deflate(out.data, out.length, out.data.length - out.length);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Unwraps a stored envelope.
+     *
+     * @param stored The Base64 envelope.
+     * @return The payload.
+     * @throws IOException If the envelope is malformed or references an unknown dictionary.
+     */
+    static Payload decode(String stored) throws IOException {
+        ByteBuffer envelope;
+        try {
+            envelope = ByteBuffer.wrap(Base64.getDecoder().decode(stored));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("invalid envelope encoding", e);
+        }
+        if (envelope.remaining() < 10) {
+            throw new IOException("truncated envelope");
+        }
+        byte version = envelope.get();
+        if (version != ENVELOPE_YAML && version != ENVELOPE_BINARY) {
+            throw new IOException("unsupported envelope version " + version);
+        }
+        byte recordCodec = envelope.get();
+        int dictionaryId = envelope.getInt();
+        int length = envelope.getInt();
+        if (length < 0) {
+            throw new IOException("invalid payload length");
+        }
+        if (recordCodec == CODEC_NONE) {
+            if (envelope.remaining() < length) {
+                throw new IOException("truncated payload");
+            }
+            return new Payload(version, envelope.array(), envelope.position(), length);
+        }
+        byte[] dictionary = null;
+        if (recordCodec == CODEC_DICTIONARY) {
+            dictionary = dictionaries.get(dictionaryId);
+            if (dictionary == null) {
+                throw new IOException("unknown dictionary " + Integer.toHexString(dictionaryId));
+            }
+        } else if (recordCodec != CODEC_DEFLATE) {
+            throw new IOException("unknown codec " + recordCodec);
+        }
+
+        EnderShareItemCodec.Buffer out = EnderShareItemCodec.scratch();
+        out.ensure(length);
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(envelope);
+        try {
+            while (out.length < length) {
+                int n = inflater.inflate(out.data, out.length, length - out.length);
+                if (n == 0) {
+                    if (inflater.needsDictionary() && dictionary != null) {
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) {
+                        throw new IOException("truncated payload");
+                    }
+                }
+                out.length += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt payload", e);
+        }
+        return new Payload(version, out.data, 0, out.length);
+    }
+
+    /**
+     * Trains a deflate dictionary from encoded samples and makes it the active dictionary.
+     * Each sample is cut into overlapping fixed-size segments; segments of NBT that repeat across
+     * samples (enchantment and component names, shulker structures, lore) are ranked by how often
+     * they occur and the most frequent are placed at the end of the dictionary, where deflate finds them cheapest.
+     *
+     * @param samples Item arrays encoded by {@link EnderShareItemCodec#encode}, holding uncompressed NBT.
+     * @return true if a dictionary was trained; false if there were too few samples.
+     */
+    static boolean trainDictionary(Collection<byte[]> samples) {
+        if (samples.size() < MIN_TRAINING_SAMPLES) {
+            return false;
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<String> seen = new HashSet<>();
+            for (int offset = 0; offset + SEGMENT_LENGTH <= sample.length; offset += SEGMENT_STRIDE) {
+                // ISO-8859-1 maps each byte to one char, giving a cheap hashable key for the segment.
+                String segment = new String(sample, offset, SEGMENT_LENGTH, StandardCharsets.ISO_8859_1);
+                if (seen.add(segment)) {
+                    counts.merge(segment, 1, Integer::sum);
+                }
+            }
+        }
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1) {
+                ranked.add(entry);
+            }
+        }
+        ranked.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+
+        int segments = Math.min(ranked.size(), dictionarySize / SEGMENT_LENGTH);
+        if (segments == 0) {
+            return false;
+        }
+        byte[] dictionary = new byte[segments * SEGMENT_LENGTH];
+        for (int i = 0; i < segments; i++) {
+            byte[] segment = ranked.get(i).getKey().getBytes(StandardCharsets.ISO_8859_1);
+            System.arraycopy(segment, 0, dictionary, dictionary.length - (i + 1) * SEGMENT_LENGTH, SEGMENT_LENGTH);
+        }
+        int id = dictionaryId(dictionary);
+
+        if (!dictionaryFolder.exists()) {
+            dictionaryFolder.mkdirs();
+        }
+        try {
+            Files.write(new File(dictionaryFolder, Integer.toHexString(id) + TRAINED_SUFFIX).toPath(), dictionary);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        dictionaries.put(id, dictionary);
+        activeDictionary = new Dictionary(id, dictionary);
+        return true;
+    }
+
+    private static int dictionaryId(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        return (int) adler.getValue();
+    }
+}
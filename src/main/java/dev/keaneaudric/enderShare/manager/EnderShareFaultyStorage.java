@@ -0,0 +1,87 @@
+package dev.keaneaudric.enderShare.manager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Storage that imitates a slow or failing disk in front of another storage.
+ * Every write is delayed by a fixed latency; a share of writes additionally stall as if waiting on fsync,
+ * fail with "No space left on device", or leave a truncated temporary file behind before failing,
+ * as a crash or a full disk in the middle of a write would.
+ */
+final class EnderShareFaultyStorage implements EnderShareStorage {
+
+    private final EnderShareStorage delegate;
+    private final long latencyMillis;
+    private final long stallMillis;
+    private final double stallRate;
+    private final double noSpaceRate;
+    private final double partialRate;
+
+    final AtomicLong stalls = new AtomicLong();
+    final AtomicLong noSpaceFailures = new AtomicLong();
+    final AtomicLong partialWrites = new AtomicLong();
+
+    /**
+     * Creates a fault-injecting storage.
+     *
+     * @param delegate      The storage that performs successful operations.
+     * @param latencyMillis Delay added to every write and delete.
+     * @param stallMillis   Duration of an fsync stall.
+     * @param stallRate     Share of writes that stall, between 0 and 1.
+     * @param noSpaceRate   Share of writes that fail with ENOSPC, between 0 and 1.
+     * @param partialRate   Share of writes that leave a truncated temporary file and fail, between 0 and 1.
+     */
+    EnderShareFaultyStorage(EnderShareStorage delegate, long latencyMillis, long stallMillis, double stallRate,
+                            double noSpaceRate, double partialRate) {
+        this.delegate = delegate;
+        this.latencyMillis = latencyMillis;
+        this.stallMillis = stallMillis;
+        this.stallRate = stallRate;
+        this.noSpaceRate = noSpaceRate;
+        this.partialRate = partialRate;
+    }
+
+    @Override
+    public void write(Path target, byte[] data) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        sleep(latencyMillis);
+        if (random.nextDouble() < stallRate) {
+            stalls.incrementAndGet();
+            sleep(stallMillis);
+        }
+        if (random.nextDouble() < noSpaceRate) {
+            noSpaceFailures.incrementAndGet();
+            throw new IOException("No space left on device");
+        }
+        if (random.nextDouble() < partialRate) {
+            partialWrites.incrementAndGet();
+            Files.write(target.resolveSibling(target.getFileName() + ".tmp"),
+                    Arrays.copyOf(data, random.nextInt(Math.max(1, data.length))));
+            throw new IOException("partial write");
+        }
+        delegate.write(target, data);
+    }
+
+    @Override
+    public void delete(Path target) throws IOException {
+        sleep(latencyMillis);
+        delegate.delete(target);
+    }
+
+    private static void sleep(long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        }
+    }
+}
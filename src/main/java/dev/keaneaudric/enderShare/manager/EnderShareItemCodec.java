@@ -0,0 +1,365 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Binary codec for item arrays.
+ * Items are written as uncompressed NBT, including the DataVersion Paper records for upgrades,
+ * into a reusable thread-local buffer:
+ * <pre>
+ *   0, varint codec version, varint size, varint count, count x (varint slot, varint length, NBT)
+ * </pre>
+ * Paper only exposes items as gzip-compressed NBT, so each item's gzip stream is inflated into
+ * the buffer on encode, and wrapped in an uncompressed (stored) gzip stream again on decode.
+ * Keeping the NBT uncompressed lets the compression layer deflate a whole record, with a
+ * dictionary trained on real item data, instead of compressing already compressed bytes.
+ * Arrays written before the codec version existed start directly with the varint size and
+ * hold Paper's gzip bytes per item; they are still decoded.
+ * Decoding writes straight into an ItemStack array of the requested size without creating
+ * inventories, maps or per-slot keys.
+ */
+final class EnderShareItemCodec {
+
+    // Codec version of arrays holding uncompressed NBT per item.
+    private static final int VERSION_NBT = 1;
+
+    // Largest stored deflate block.
+    private static final int STORED_BLOCK = 65535;
+
+    // Fixed gzip header written by Java's GZIPOutputStream, which is what Paper reads and writes.
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int FLAG_HCRC = 2;
+    private static final int FLAG_EXTRA = 4;
+    private static final int FLAG_NAME = 8;
+    private static final int FLAG_COMMENT = 16;
+
+    // Raw inflaters for unwrapping Paper's gzip streams, and checksums for wrapping them again.
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<CRC32> CRCS = ThreadLocal.withInitial(CRC32::new);
+
+    // Reusable per-thread output buffers, so encoding a record does not allocate a new buffer each time.
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(() -> new Buffer(8192));
+
+    // Second per-thread buffer, used by the compression layer while the encode buffer is still in use.
+    private static final ThreadLocal<Buffer> SCRATCH = ThreadLocal.withInitial(() -> new Buffer(8192));
+
+    // Third per-thread buffer, holding the text of a record while it is assembled.
+    private static final ThreadLocal<Buffer> RECORDS = ThreadLocal.withInitial(() -> new Buffer(8192));
+
+    private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    private EnderShareItemCodec() {
+    }
+
+    /**
+     * A growable byte buffer with variable-length integer support.
+     */
+    static final class Buffer {
+        byte[] data;
+        int length;
+
+        Buffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void reset() {
+            length = 0;
+        }
+
+        void ensure(int extra) {
+            if (length + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+            }
+        }
+
+        void write(int b) {
+            ensure(1);
+            data[length++] = (byte) b;
+        }
+
+        void write(byte[] bytes, int offset, int count) {
+            ensure(count);
+            System.arraycopy(bytes, offset, data, length, count);
+            length += count;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            data[length++] = (byte) (value >>> 24);
+            data[length++] = (byte) (value >>> 16);
+            data[length++] = (byte) (value >>> 8);
+            data[length++] = (byte) value;
+        }
+
+        void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        // Appends the bytes in Base64 with padding, the form records are stored in.
+        void writeBase64(byte[] bytes, int offset, int count) {
+            ensure((count + 2) / 3 * 4);
+            int end = offset + count;
+            int i = offset;
+            for (; i + 3 <= end; i += 3) {
+                int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+                data[length++] = BASE64[bits >>> 18];
+                data[length++] = BASE64[bits >>> 12 & 0x3F];
+                data[length++] = BASE64[bits >>> 6 & 0x3F];
+                data[length++] = BASE64[bits & 0x3F];
+            }
+            if (i < end) {
+                int bits = (bytes[i] & 0xFF) << 16 | (i + 1 < end ? (bytes[i + 1] & 0xFF) << 8 : 0);
+                data[length++] = BASE64[bits >>> 18];
+                data[length++] = BASE64[bits >>> 12 & 0x3F];
+                data[length++] = i + 1 < end ? BASE64[bits >>> 6 & 0x3F] : (byte) '=';
+                data[length++] = '=';
+            }
+        }
+
+        // Appends text made of single-byte characters.
+        void writeAscii(String text) {
+            ensure(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                data[length++] = (byte) text.charAt(i);
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, length);
+        }
+    }
+
+    /**
+     * Returns a cleared scratch buffer owned by the calling thread, separate from the encode buffer.
+     *
+     * @return The scratch buffer.
+     */
+    static Buffer scratch() {
+        Buffer buffer = SCRATCH.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * Returns a cleared buffer owned by the calling thread for assembling record text,
+     * separate from the encode and scratch buffers.
+     *
+     * @return The record buffer.
+     */
+    static Buffer records() {
+        Buffer buffer = RECORDS.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * Encodes the items into the calling thread's reusable buffer.
+     * The returned buffer is only valid until the next call on the same thread.
+     *
+     * @param items The items to encode; null and air entries are skipped.
+     * @return The thread-local buffer holding the encoded bytes.
+     * @throws IllegalStateException If Paper returns an item in an unexpected form.
+     */
+    static Buffer encode(ItemStack[] items) {
+        Buffer buffer = BUFFERS.get();
+        buffer.reset();
+        int count = 0;
+        for (ItemStack item : items) {
+            if (item != null && !item.getType().isAir()) {
+                count++;
+            }
+        }
+        buffer.write(0);
+        buffer.writeVarInt(VERSION_NBT);
+        buffer.writeVarInt(items.length);
+        buffer.writeVarInt(count);
+        for (int slot = 0; slot < items.length; slot++) {
+            ItemStack item = items[slot];
+            if (item == null || item.getType().isAir()) {
+                continue;
+            }
+            buffer.writeVarInt(slot);
+            try {
+                writeNbt(buffer, item.serializeAsBytes());
+            } catch (IOException e) {
+                throw new IllegalStateException("unexpected item encoding in slot " + slot, e);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Inflates one of Paper's gzip-compressed items and appends its NBT, prefixed with its length.
+     */
+    private static void writeNbt(Buffer buffer, byte[] gzip) throws IOException {
+        if (gzip.length < 18 || gzip[0] != 0x1f || gzip[1] != (byte) 0x8b || gzip[2] != 8) {
+            throw new IOException("not a gzip stream");
+        }
+        int flags = gzip[3] & 0xFF;
+        int position = 10;
+        if ((flags & FLAG_EXTRA) != 0) {
+            position += 2 + ((gzip[position] & 0xFF) | (gzip[position + 1] & 0xFF) << 8);
+        }
+        if ((flags & FLAG_NAME) != 0) {
+            while (gzip[position++] != 0) {
+                // Skip the file name.
+            }
+        }
+        if ((flags & FLAG_COMMENT) != 0) {
+            while (gzip[position++] != 0) {
+                // Skip the comment.
+            }
+        }
+        if ((flags & FLAG_HCRC) != 0) {
+            position += 2;
+        }
+        // The trailer ends with the uncompressed size, so the NBT can be inflated in place.
+        int end = gzip.length;
+        int size = (gzip[end - 4] & 0xFF) | (gzip[end - 3] & 0xFF) << 8 | (gzip[end - 2] & 0xFF) << 16
+                | (gzip[end - 1] & 0xFF) << 24;
+        if (size < 0 || position > end - 8) {
+            throw new IOException("malformed gzip stream");
+        }
+        buffer.writeVarInt(size);
+        buffer.ensure(size);
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(gzip, position, end - 8 - position);
+        try {
+            int inflated = 0;
+            while (inflated < size) {
+                int n = inflater.inflate(buffer.data, buffer.length + inflated, size - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("truncated gzip stream");
+                }
+                inflated += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt gzip stream", e);
+        }
+        buffer.length += size;
+    }
+
+    /**
+     * Wraps NBT from the given range in an uncompressed gzip stream, the form Paper reads items from.
+     */
+    private static byte[] wrapNbt(byte[] data, int offset, int length) {
+        int blocks = Math.max(1, (length + STORED_BLOCK - 1) / STORED_BLOCK);
+        byte[] gzip = new byte[GZIP_HEADER.length + length + 5 * blocks + 8];
+        System.arraycopy(GZIP_HEADER, 0, gzip, 0, GZIP_HEADER.length);
+        int position = GZIP_HEADER.length;
+        int done = 0;
+        for (int block = 0; block < blocks; block++) {
+            int count = Math.min(STORED_BLOCK, length - done);
+            gzip[position++] = (byte) (block == blocks - 1 ? 1 : 0);
+            gzip[position++] = (byte) count;
+            gzip[position++] = (byte) (count >>> 8);
+            gzip[position++] = (byte) ~count;
+            gzip[position++] = (byte) (~count >>> 8);
+            System.arraycopy(data, offset + done, gzip, position, count);
+            position += count;
+            done += count;
+        }
+        CRC32 crc = CRCS.get();
+        crc.reset();
+        crc.update(data, offset, length);
+        int value = (int) crc.getValue();
+        for (int shift = 0; shift < 32; shift += 8) {
+            gzip[position++] = (byte) (value >>> shift);
+        }
+        for (int shift = 0; shift < 32; shift += 8) {
+            gzip[position++] = (byte) (length >>> shift);
+        }
+        return gzip;
+    }
+
+    /**
+     * Decodes items from the given byte range.
+     *
+     * @param data   The source bytes.
+     * @param offset The offset of the encoded items.
+     * @param length The number of encoded bytes.
+     * @param size   The size of the returned array; slots beyond it are ignored.
+     * @return The decoded items.
+     * @throws IOException If the data is truncated or malformed.
+     */
+    static ItemStack[] decode(byte[] data, int offset, int length, int size) throws IOException {
+        Reader reader = new Reader(data, offset, offset + length);
+        ItemStack[] items = new ItemStack[size];
+        // Arrays without a codec version start with their non-zero size and hold gzip bytes per item.
+        boolean nbt = length > 0 && data[offset] == 0;
+        if (nbt) {
+            reader.position++;
+            int version = reader.readVarInt();
+            if (version != VERSION_NBT) {
+                throw new IOException("unsupported item codec version " + version);
+            }
+        }
+        reader.readVarInt(); // Encoded array size; the caller decides the target size.
+        int count = reader.readVarInt();
+        for (int i = 0; i < count; i++) {
+            int slot = reader.readVarInt();
+            int itemLength = reader.readVarInt();
+            int itemOffset = reader.skip(itemLength);
+            if (slot < 0 || slot >= size) {
+                continue;
+            }
+            // Paper only reads whole arrays, so each item gets exactly one array, built from the shared buffer.
+            items[slot] = ItemStack.deserializeBytes(nbt ? wrapNbt(data, itemOffset, itemLength)
+                    : Arrays.copyOfRange(data, itemOffset, itemOffset + itemLength));
+        }
+        return items;
+    }
+
+    /**
+     * Sequential reader over a byte range.
+     */
+    private static final class Reader {
+        private final byte[] data;
+        private final int end;
+        private int position;
+
+        Reader(byte[] data, int position, int end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (position >= end) {
+                    throw new IOException("truncated item data");
+                }
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+
+        // Skips the given number of bytes and returns the offset where they start.
+        int skip(int count) throws IOException {
+            if (count < 0 || position + count > end) {
+                throw new IOException("truncated item data");
+            }
+            int start = position;
+            position += count;
+            return start;
+        }
+    }
+}
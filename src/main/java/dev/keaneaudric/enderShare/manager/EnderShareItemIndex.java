@@ -0,0 +1,461 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Registry;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Inverted index from item keys to the shared-chest slots holding them.
+ * Every stored item is indexed under its material ("material:diamond_sword"), its custom model data
+ * ("model:1001") and each of its enchantments ("enchant:sharpness"). For each key the index keeps,
+ * per session, a bitmask of the slots holding a matching item; slot amounts are kept per session.
+ * The index is updated when a session is saved, re-reading only the slots that changed in the session's
+ * published snapshots since the last update, however they were changed. It is written next to the
+ * snapshot so startup does not have to decode sessions to rebuild it.
+ * The index itself is only accessed from the main thread; {@link #describe(ItemStack)} and
+ * {@link #describe(ItemStack[])} read nothing but their argument and may be called from any thread.
+ */
+public class EnderShareItemIndex {
+
+    static final String FILE_NAME = "itemindex.bin";
+
+    // Mask covering every slot of a 54-slot shared chest.
+    static final long ALL_SLOTS = (1L << 54) - 1;
+
+    private static final int MAGIC = 0x45534949; // "ESII"
+    private static final int VERSION = 1;
+
+    /**
+     * The indexed state of one slot.
+     */
+    static final class Slot {
+        final String[] keys;
+        final int amount;
+
+        Slot(String[] keys, int amount) {
+            this.keys = keys;
+            this.amount = amount;
+        }
+
+        boolean sameAs(Slot other) {
+            return other != null && amount == other.amount && Arrays.equals(keys, other.keys);
+        }
+    }
+
+    /**
+     * Slots of a session read from the index file, with the checksum of the contents they describe.
+     */
+    static final class Persisted {
+        final int checksum;
+        final Slot[] slots;
+
+        Persisted(int checksum, Slot[] slots) {
+            this.checksum = checksum;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * A slot matching a query.
+     */
+    public static final class Hit {
+        public final String sessionId;
+        public final int slot;
+        public final int amount;
+
+        Hit(String sessionId, int slot, int amount) {
+            this.sessionId = sessionId;
+            this.slot = slot;
+            this.amount = amount;
+        }
+    }
+
+    // Indexed slots of every session.
+    private static final Map<String, Slot[]> sessions = new HashMap<>();
+    // For every key, the slots of each session holding a matching item.
+    private static final Map<String, Map<String, Long>> postings = new HashMap<>();
+
+    private EnderShareItemIndex() {
+    }
+
+    /**
+     * Brings a session's entries up to date with its contents. Only the changed slots are re-read;
+     * sessions not indexed yet are read in full.
+     *
+     * @param sessionId The session identifier.
+     * @param contents  The session's current contents.
+     * @param changed   Bitmask of the slots changed since the last update, from
+     *                  {@link EnderShareSession#takeUnindexedSlots()}.
+     */
+    static void update(String sessionId, ItemStack[] contents, long changed) {
+        index(sessionId, contents, sessions.containsKey(sessionId) ? changed : ALL_SLOTS);
+    }
+
+    /**
+     * Re-reads the given slots of a session.
+     *
+     * @param sessionId The session identifier.
+     * @param contents  The session's contents.
+     * @param mask      Bitmask of the slots to re-read.
+     */
+    static void index(String sessionId, ItemStack[] contents, long mask) {
+        Slot[] slots = sessions.computeIfAbsent(sessionId, id -> new Slot[54]);
+        for (int i = 0; i < slots.length; i++) {
+            if ((mask & (1L << i)) == 0) {
+                continue;
+            }
+            Slot updated = describe(i < contents.length ? contents[i] : null);
+            Slot current = slots[i];
+            if (updated == current || updated != null && updated.sameAs(current)) {
+                continue;
+            }
+            if (current != null) {
+                unlink(sessionId, current.keys, i);
+            }
+            if (updated != null) {
+                link(sessionId, updated.keys, i);
+            }
+            slots[i] = updated;
+        }
+    }
+
+    /**
+     * Installs slots read from the index file for a session.
+     *
+     * @param sessionId The session identifier.
+     * @param slots     The session's slots.
+     */
+    static void put(String sessionId, Slot[] slots) {
+        remove(sessionId);
+        sessions.put(sessionId, slots);
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                link(sessionId, slots[i].keys, i);
+            }
+        }
+    }
+
+    /**
+     * Removes every entry of a session.
+     *
+     * @param sessionId The session identifier.
+     */
+    static void remove(String sessionId) {
+        Slot[] slots = sessions.remove(sessionId);
+        if (slots == null) {
+            return;
+        }
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                unlink(sessionId, slots[i].keys, i);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a session has been indexed.
+     *
+     * @param sessionId The session identifier.
+     * @return true if the session's slots are in the index.
+     */
+    public static boolean contains(String sessionId) {
+        return sessions.containsKey(sessionId);
+    }
+
+    /**
+     * Returns the indexed slots of a session.
+     *
+     * @param sessionId The session identifier.
+     * @return A copy of the session's slots, or null if it is not indexed.
+     */
+    static Slot[] slotsOf(String sessionId) {
+        Slot[] slots = sessions.get(sessionId);
+        return slots != null ? slots.clone() : null;
+    }
+
+    /**
+     * Finds the slots holding items that match a key.
+     *
+     * @param key       The key, as returned by {@link #parseQuery(String)}.
+     * @param sessionId Restricts the search to one session, or null to search every session.
+     * @param limit     The maximum number of hits.
+     * @return The matching slots.
+     */
+    public static List<Hit> find(String key, String sessionId, int limit) {
+        List<Hit> hits = new ArrayList<>();
+        Map<String, Long> matches = postings.get(key);
+        if (matches == null) {
+            return hits;
+        }
+        Iterable<Map.Entry<String, Long>> entries = sessionId == null ? matches.entrySet()
+                : matches.containsKey(sessionId) ? List.of(Map.entry(sessionId, matches.get(sessionId))) : List.of();
+        for (Map.Entry<String, Long> entry : entries) {
+            Slot[] slots = sessions.get(entry.getKey());
+            long mask = entry.getValue();
+            while (mask != 0 && hits.size() < limit) {
+                int slot = Long.numberOfTrailingZeros(mask);
+                mask &= mask - 1;
+                hits.add(new Hit(entry.getKey(), slot, slots[slot].amount));
+            }
+            if (hits.size() >= limit) {
+                break;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Counts the sessions holding items that match a key.
+     *
+     * @param key The key.
+     * @return The number of sessions.
+     */
+    public static int countSessions(String key) {
+        Map<String, Long> matches = postings.get(key);
+        return matches != null ? matches.size() : 0;
+    }
+
+    /**
+     * Turns a search term into an index key. Accepts a material name, "model:&lt;number&gt;"
+     * or "enchant:&lt;name&gt;", where the name may carry a namespace.
+     *
+     * @param query The search term.
+     * @return The key, or null if the term does not name a material, a model number or a known enchantment.
+     */
+    public static String parseQuery(String query) {
+        String lower = query.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("model:")) {
+            try {
+                return "model:" + Integer.parseInt(lower.substring("model:".length()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (lower.startsWith("enchant:")) {
+            String name = lower.substring("enchant:".length());
+            NamespacedKey key = name.isEmpty() ? null : NamespacedKey.fromString(name);
+            Enchantment enchantment = key != null ? Registry.ENCHANTMENT.get(key) : null;
+            return enchantment != null ? "enchant:" + enchantment.getKey().getKey() : null;
+        }
+        Material material = Material.matchMaterial(query);
+        return material != null ? "material:" + material.name().toLowerCase(Locale.ROOT) : null;
+    }
+
+    /**
+     * Computes the indexed state of one item.
+     *
+     * @param item The item, or null.
+     * @return The slot state, or null for an empty slot.
+     */
+    static Slot describe(ItemStack item) {
+        if (item == null || item.getType() == null || item.getType().isAir() || item.getAmount() <= 0) {
+            return null;
+        }
+        List<String> keys = new ArrayList<>(2);
+        keys.add("material:" + item.getType().name().toLowerCase(Locale.ROOT));
+        if (item.hasItemMeta()) {
+            ItemMeta meta = item.getItemMeta();
+            if (meta.hasCustomModelData()) {
+                keys.add("model:" + meta.getCustomModelData());
+            }
+            for (Enchantment enchantment : meta.getEnchants().keySet()) {
+                keys.add("enchant:" + enchantment.getKey().getKey());
+            }
+        }
+        return new Slot(keys.toArray(new String[0]), item.getAmount());
+    }
+
+    /**
+     * Computes the indexed state of every slot.
+     *
+     * @param items The contents.
+     * @return The slot states.
+     */
+    static Slot[] describe(ItemStack[] items) {
+        Slot[] slots = new Slot[54];
+        for (int i = 0; i < slots.length && i < items.length; i++) {
+            slots[i] = describe(items[i]);
+        }
+        return slots;
+    }
+
+    /**
+     * Indexes sessions whose contents are still encoded, decoding them in the background.
+     * Sessions indexed by a save in the meantime are left as they are.
+     *
+     * @param plugin  The plugin instance.
+     * @param pending The sessions to index.
+     */
+    static void indexInBackground(JavaPlugin plugin, List<EnderShareSession> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<ByteBuffer> blobs = new ArrayList<>();
+        List<Integer> checksums = new ArrayList<>();
+        for (EnderShareSession session : pending) {
+            blobs.add(session.getStoredContents());
+            checksums.add(session.getStoredChecksum());
+        }
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            Slot[][] described = new Slot[pending.size()][];
+            for (int i = 0; i < described.length; i++) {
+                ByteBuffer blob = blobs.get(i);
+                if (blob == null) {
+                    continue;
+                }
+                byte[] bytes = new byte[blob.remaining()];
+                blob.get(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                try {
+                    if ((int) crc.getValue() == checksums.get(i)) {
+                        described[i] = describe(EnderShareItemCodec.decode(bytes, 0, bytes.length, 54));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    plugin.getLogger().warning("Could not index session " + pending.get(i).getSessionId() + ": " + e.getMessage());
+                }
+            }
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                for (int i = 0; i < described.length; i++) {
+                    EnderShareSession session = pending.get(i);
+                    if (described[i] != null && !contains(session.getSessionId())
+                            && EnderShareManager.getSession(session.getPlayer1()) == session) {
+                        put(session.getSessionId(), described[i]);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Writes slots to the index file, each with the checksum of the encoded contents it describes.
+     *
+     * @param dataFolder The plugin data folder.
+     * @param slots      Slots per session ID.
+     * @param checksums  Content checksums per session ID; sessions without one are skipped.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(File dataFolder, Map<String, Slot[]> slots, Map<String, Integer> checksums) throws IOException {
+        Path target = new File(dataFolder, FILE_NAME).toPath();
+        Path temp = target.resolveSibling(FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            int count = 0;
+            for (String sessionId : slots.keySet()) {
+                count += checksums.containsKey(sessionId) ? 1 : 0;
+            }
+            out.writeInt(count);
+            for (Map.Entry<String, Slot[]> entry : slots.entrySet()) {
+                Integer checksum = checksums.get(entry.getKey());
+                if (checksum == null) {
+                    continue;
+                }
+                out.writeUTF(entry.getKey());
+                out.writeInt(checksum);
+                for (int i = 0; i < entry.getValue().length; i++) {
+                    Slot slot = entry.getValue()[i];
+                    if (slot == null) {
+                        continue;
+                    }
+                    out.writeByte(i);
+                    out.writeInt(slot.amount);
+                    out.writeByte(slot.keys.length);
+                    for (String key : slot.keys) {
+                        out.writeUTF(key);
+                    }
+                }
+                out.writeByte(-1);
+            }
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads the index file.
+     *
+     * @param dataFolder The plugin data folder.
+     * @return Persisted slots per session ID; empty if the file is missing or unreadable.
+     */
+    static Map<String, Persisted> read(File dataFolder) {
+        Map<String, Persisted> persisted = new HashMap<>();
+        File file = new File(dataFolder, FILE_NAME);
+        if (!file.isFile()) {
+            return persisted;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return persisted;
+            }
+            int count = in.readInt();
+            for (int n = 0; n < count; n++) {
+                String sessionId = in.readUTF();
+                int checksum = in.readInt();
+                Slot[] slots = new Slot[54];
+                int slot;
+                while ((slot = in.readByte()) >= 0) {
+                    if (slot >= slots.length) {
+                        throw new IOException("invalid slot " + slot);
+                    }
+                    int amount = in.readInt();
+                    String[] keys = new String[in.readByte()];
+                    for (int k = 0; k < keys.length; k++) {
+                        keys[k] = in.readUTF();
+                    }
+                    slots[slot] = new Slot(keys, amount);
+                }
+                persisted.put(sessionId, new Persisted(checksum, slots));
+            }
+        } catch (IOException e) {
+            Bukkit.getLogger().warning("[EnderShare] Ignoring unreadable item index: " + e.getMessage());
+            persisted.clear();
+        }
+        return persisted;
+    }
+
+    private static void link(String sessionId, String[] keys, int slot) {
+        for (String key : keys) {
+            postings.computeIfAbsent(key, k -> new HashMap<>()).merge(sessionId, 1L << slot, (a, b) -> a | b);
+        }
+    }
+
+    private static void unlink(String sessionId, String[] keys, int slot) {
+        for (String key : keys) {
+            Map<String, Long> matches = postings.get(key);
+            if (matches == null) {
+                continue;
+            }
+            Long mask = matches.get(sessionId);
+            if (mask == null) {
+                continue;
+            }
+            long remaining = mask & ~(1L << slot);
+            if (remaining == 0) {
+                matches.remove(sessionId);
+                if (matches.isEmpty()) {
+                    postings.remove(key);
+                }
+            } else {
+                matches.put(sessionId, remaining);
+            }
+        }
+    }
+}
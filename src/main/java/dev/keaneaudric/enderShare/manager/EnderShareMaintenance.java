@@ -0,0 +1,401 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Administrative maintenance tasks: export, import, compact and garbage collection of stored data.
+ * Tasks run on an asynchronous thread, walk the store one record at a time, report progress to the
+ * issuing sender and are throttled so the server keeps its tick rate. Only one task runs at a time.
+ */
+public class EnderShareMaintenance {
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    // Interval between progress messages, in milliseconds.
+    private static final long PROGRESS_INTERVAL = 5000L;
+
+    // Upper bound on the number of samples gathered when retraining the compression dictionary.
+    private static final int MAX_TRAINING_SAMPLES = 512;
+
+    private EnderShareMaintenance() {
+    }
+
+    /**
+     * Returns whether a maintenance task is currently running.
+     *
+     * @return true if a task is running.
+     */
+    public static boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Exports all sessions, pending restorations and compression dictionaries into a new archive
+     * in the "exports" folder. Queued session writes are flushed first, so the files streamed into
+     * the archive hold every save made before the export started.
+     *
+     * @param sender The sender to report progress to.
+     */
+    public static void export(CommandSender sender) {
+        start(sender, new Job(sender, "export") {
+            @Override
+            void execute() throws Exception {
+                File exportFolder = new File(plugin().getDataFolder(), "exports");
+                if (!exportFolder.exists()) {
+                    exportFolder.mkdirs();
+                }
+                String name = "endershare-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".esa";
+                File target = new File(exportFolder, name);
+                File temp = new File(exportFolder, name + ".tmp");
+
+                // Restoration arrays are never modified once set, so a shallow copy is a consistent view.
+                Map<UUID, ItemStack[]> restorations = onMainThread(EnderShareManager::getPendingRestorations);
+                long timeout = Math.max(1, plugin().getConfig().getLong("persistence.shutdown_timeout_seconds", 30)) * 1000L;
+                int unsaved = EnderShareManager.awaitPersistence(timeout);
+                if (unsaved > 0) {
+                    throw new IOException(unsaved + " session write(s) are still queued; try again once storage has caught up");
+                }
+
+                int skipped = 0;
+                try (EnderShareArchive.Writer writer = new EnderShareArchive.Writer(temp)) {
+                    for (byte[] dictionary : EnderShareCompression.knownDictionaries()) {
+                        writer.writeDictionary(dictionary);
+                    }
+                    try (EnderShareStoreCursor cursor = new EnderShareStoreCursor(chestDataFolder())) {
+                        while (cursor.hasNext()) {
+                            File file = cursor.nextFile();
+                            try {
+                                EnderShareStoreCursor.Record record = EnderShareStoreCursor.read(file);
+                                record.verify();
+                                writer.writeSession(record.sessionId, record.player1, record.player2,
+                                        record.storedFormat(), record.storedContents());
+                            } catch (IOException e) {
+                                skipped++;
+                                plugin().getLogger().warning("Export skipped " + file.getName() + ": " + e.getMessage());
+                            }
+                            step();
+                        }
+                    }
+                    for (Map.Entry<UUID, ItemStack[]> entry : restorations.entrySet()) {
+                        writer.writeRestoration(entry.getKey(), EnderShareCompression.FORMAT_ENVELOPE,
+                                EnderShareManager.serializeItemArray(entry.getValue()));
+                        step();
+                    }
+                }
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                finish("Exported " + (processed - skipped) + " record(s) to exports/" + name
+                        + (skipped > 0 ? " (" + skipped + " unreadable file(s) skipped)" : "") + ".");
+            }
+        });
+    }
+
+    /**
+     * Imports an archive from the "exports" folder. Sessions whose participants are already
+     * sharing, and restorations for players who already have one pending, are skipped.
+     * Sessions whose ID could name a file outside the "chestdata" folder are rejected.
+     *
+     * @param sender The sender to report progress to.
+     * @param name   The archive file name.
+     */
+    public static void importArchive(CommandSender sender, String name) {
+        File source = new File(new File(plugin().getDataFolder(), "exports"), new File(name).getName());
+        if (!source.isFile()) {
+            sender.sendMessage(ChatColor.RED + "Archive not found: exports/" + source.getName());
+            return;
+        }
+        start(sender, new Job(sender, "import") {
+            private final List<EnderShareArchive.Entry> batch = new ArrayList<>();
+            private final List<ItemStack[]> batchItems = new ArrayList<>();
+            private int imported;
+            private int conflicts;
+            private int rejected;
+
+            @Override
+            void execute() throws Exception {
+                try (EnderShareArchive.Reader reader = new EnderShareArchive.Reader(source)) {
+                    EnderShareArchive.Entry entry;
+                    while ((entry = reader.next()) != null) {
+                        if (entry.type == EnderShareArchive.TYPE_DICTIONARY) {
+                            EnderShareCompression.registerDictionary(entry.dictionary);
+                            continue;
+                        }
+                        if (entry.type == EnderShareArchive.TYPE_SESSION && !EnderShareArchive.isSafeSessionId(entry.sessionId)) {
+                            rejected++;
+                            plugin().getLogger().warning("Import rejected a session with an invalid ID: " + entry.sessionId);
+                            continue;
+                        }
+                        int size = entry.type == EnderShareArchive.TYPE_SESSION ? 54 : 27;
+                        batch.add(entry);
+                        batchItems.add(EnderShareManager.decodeItemArray(entry.contents, entry.format, size));
+                        if (batch.size() >= batchSize) {
+                            flush();
+                        }
+                        step();
+                    }
+                }
+                flush();
+                onMainThread(() -> {
+                    EnderShareManager.savePendingRestorations();
+                    return null;
+                });
+                finish("Imported " + imported + " record(s) from " + source.getName()
+                        + (conflicts > 0 ? " (" + conflicts + " skipped due to existing data)" : "")
+                        + (rejected > 0 ? " (" + rejected + " rejected for invalid session IDs)" : "") + ".");
+            }
+
+            /**
+             * Hands the decoded batch to the main thread, where inventories are created and registered.
+             */
+            private void flush() throws Exception {
+                if (batch.isEmpty()) {
+                    return;
+                }
+                int[] result = onMainThread(() -> {
+                    int added = 0;
+                    int skipped = 0;
+                    for (int i = 0; i < batch.size(); i++) {
+                        EnderShareArchive.Entry entry = batch.get(i);
+                        ItemStack[] items = batchItems.get(i);
+                        if (entry.type == EnderShareArchive.TYPE_SESSION) {
+                            if (EnderShareManager.isSharing(entry.player1) || EnderShareManager.isSharing(entry.player2)
+                                    || EnderShareManager.hasSessionId(entry.sessionId)) {
+                                skipped++;
+                                continue;
+                            }
+                            Inventory inv = Bukkit.createInventory(null, 54, "Shared Ender Chest");
+                            inv.setContents(items);
+                            EnderShareManager.addSession(new EnderShareSession(entry.player1, entry.player2, inv, entry.sessionId));
+                        } else {
+                            if (EnderShareManager.hasPendingRestoration(entry.player1)) {
+                                skipped++;
+                                continue;
+                            }
+                            EnderShareManager.setPendingRestoration(entry.player1, items);
+                        }
+                        added++;
+                    }
+                    return new int[]{added, skipped};
+                });
+                imported += result[0];
+                conflicts += result[1];
+                batch.clear();
+                batchItems.clear();
+            }
+        });
+    }
+
+    /**
+     * Rewrites every session and pending restoration in the current storage format and codec.
+     * When the dictionary codec is selected, the dictionary is retrained from the store first.
+     *
+     * @param sender The sender to report progress to.
+     */
+    public static void compact(CommandSender sender) {
+        start(sender, new Job(sender, "compact") {
+            @Override
+            void execute() throws Exception {
+                if (EnderShareCompression.usesDictionary()) {
+                    List<byte[]> samples = new ArrayList<>();
+                    try (EnderShareStoreCursor cursor = new EnderShareStoreCursor(chestDataFolder())) {
+                        while (cursor.hasNext() && samples.size() < MAX_TRAINING_SAMPLES) {
+                            File file = cursor.nextFile();
+                            try {
+                                EnderShareStoreCursor.Record record = EnderShareStoreCursor.read(file);
+                                record.verify();
+                                samples.add(EnderShareItemCodec.encode(record.decode()).toByteArray());
+                            } catch (IOException e) {
+                                plugin().getLogger().warning("Compact skipped " + file.getName() + ": " + e.getMessage());
+                            }
+                            step();
+                        }
+                    }
+                    if (EnderShareCompression.trainDictionary(samples)) {
+                        message("Retrained compression dictionary from " + samples.size() + " session(s).");
+                    }
+                }
+
+                List<UUID> participants = onMainThread(() -> {
+                    List<UUID> ids = new ArrayList<>();
+                    for (EnderShareSession session : EnderShareManager.getAllSessions()) {
+                        ids.add(session.getPlayer1());
+                    }
+                    return ids;
+                });
+                int rewritten = 0;
+                for (int from = 0; from < participants.size(); from += batchSize) {
+                    List<UUID> slice = participants.subList(from, Math.min(participants.size(), from + batchSize));
+                    rewritten += onMainThread(() -> {
+                        int count = 0;
+                        for (UUID participant : slice) {
+                            EnderShareSession session = EnderShareManager.getSession(participant);
+                            if (session != null) {
+                                EnderShareManager.saveSession(session, true);
+                                count++;
+                            }
+                        }
+                        return count;
+                    });
+                    for (int i = 0; i < slice.size(); i++) {
+                        step();
+                    }
+                }
+                onMainThread(() -> {
+                    EnderShareManager.savePendingRestorations();
+                    return null;
+                });
+                finish("Rewrote " + rewritten + " session(s) and all pending restorations.");
+            }
+        });
+    }
+
+    /**
+     * Cleans up the "chestdata" folder: leftover temporary files are deleted, and session files
+     * that no active session refers to are moved to "chestdata/orphaned".
+     *
+     * @param sender The sender to report progress to.
+     */
+    public static void collectGarbage(CommandSender sender) {
+        start(sender, new Job(sender, "gc") {
+            @Override
+            void execute() throws Exception {
+                Set<String> live = onMainThread(EnderShareManager::getSessionIds);
+                File orphanFolder = new File(chestDataFolder(), "orphaned");
+                long staleBefore = System.currentTimeMillis() - 60_000L;
+                int orphaned = 0;
+                int temporary = 0;
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(chestDataFolder().toPath())) {
+                    for (Path path : stream) {
+                        String fileName = path.getFileName().toString();
+                        if (fileName.endsWith(".tmp") && Files.getLastModifiedTime(path).toMillis() < staleBefore) {
+                            Files.deleteIfExists(path);
+                            temporary++;
+                        } else if (fileName.endsWith(".yml")) {
+                            String sessionId = fileName.substring(0, fileName.length() - ".yml".length());
+                            // Re-check on the main thread, since the session may have been created after the snapshot.
+                            if (!live.contains(sessionId) && !onMainThread(() -> EnderShareManager.hasSessionId(sessionId))) {
+                                if (!orphanFolder.exists()) {
+                                    orphanFolder.mkdirs();
+                                }
+                                Files.move(path, orphanFolder.toPath().resolve(fileName), StandardCopyOption.REPLACE_EXISTING);
+                                orphaned++;
+                            }
+                        }
+                        step();
+                    }
+                }
+                finish("Moved " + orphaned + " orphaned session file(s) to chestdata/orphaned and removed "
+                        + temporary + " stale temporary file(s).");
+            }
+        });
+    }
+
+    private static void start(CommandSender sender, Job job) {
+        if (!running.compareAndSet(false, true)) {
+            sender.sendMessage(ChatColor.RED + "Another EnderShare maintenance task is already running.");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Started EnderShare " + job.name + "...");
+        Bukkit.getScheduler().runTaskAsynchronously(plugin(), job);
+    }
+
+    private static JavaPlugin plugin() {
+        return EnderShareManager.getPlugin();
+    }
+
+    private static File chestDataFolder() {
+        return new File(plugin().getDataFolder(), "chestdata");
+    }
+
+    /**
+     * Base class for maintenance tasks, providing throttling, progress reporting and main-thread hand-off.
+     */
+    private abstract static class Job implements Runnable {
+        final CommandSender sender;
+        final String name;
+        final int batchSize;
+        private final int recordsPerSecond;
+        private final long startedAt = System.currentTimeMillis();
+        private long lastProgress = startedAt;
+        int processed;
+
+        Job(CommandSender sender, String name) {
+            this.sender = sender;
+            this.name = name;
+            this.batchSize = Math.max(1, plugin().getConfig().getInt("maintenance.batch_size", 20));
+            this.recordsPerSecond = Math.max(1, plugin().getConfig().getInt("maintenance.records_per_second", 200));
+        }
+
+        abstract void execute() throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                execute();
+            } catch (Exception e) {
+                e.printStackTrace();
+                send(ChatColor.RED + "EnderShare " + name + " failed: " + e.getMessage());
+            } finally {
+                running.set(false);
+            }
+        }
+
+        /**
+         * Records one processed record, reports progress and sleeps as needed to stay within the
+         * configured rate. Backs off further while the server is below 19 TPS.
+         *
+         * @throws InterruptedException If the task is interrupted while throttling.
+         */
+        void step() throws InterruptedException {
+            processed++;
+            long now = System.currentTimeMillis();
+            if (now - lastProgress >= PROGRESS_INTERVAL) {
+                lastProgress = now;
+                message("EnderShare " + name + ": " + processed + " record(s) processed...");
+            }
+            long due = startedAt + processed * 1000L / recordsPerSecond;
+            if (due > now) {
+                Thread.sleep(due - now);
+            }
+            if (Bukkit.getTPS()[0] < 19.0) {
+                Thread.sleep(250L);
+            }
+        }
+
+        void message(String text) {
+            send(ChatColor.YELLOW + text);
+        }
+
+        void finish(String text) {
+            send(ChatColor.GREEN + text);
+        }
+
+        private void send(String text) {
+            Bukkit.getScheduler().runTask(plugin(), () -> sender.sendMessage(text));
+        }
+
+        <T> T onMainThread(Callable<T> task) throws Exception {
+            try {
+                return Bukkit.getScheduler().callSyncMethod(plugin(), task).get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package dev.keaneaudric.enderShare.manager;
 
 import dev.keaneaudric.enderShare.EnderShare;
+import dev.keaneaudric.enderShare.utils.EnderShareNameCache;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
@@ -11,7 +14,11 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
 /**
  * Manages active sharing sessions, pending Ender Chest restorations, and pending sharing invitations.
@@ -19,15 +26,34 @@ import java.util.*;
  */
 public class EnderShareManager {
 
-    // Active sharing sessions are stored by mapping each player UUID to their session.
-    private static Map<UUID, EnderShareSession> sessions = new HashMap<>();
     private static JavaPlugin plugin;
 
+    // Snapshot mapped during startup, kept until pending restorations have been loaded.
+    private static EnderShareSnapshot.Loaded startupSnapshot;
+
+    // Queue performing every live write, and the store holding the active sessions and writing their files.
+    private static EnderSharePersistenceQueue queue;
+    private static EnderShareSessionStore store;
+
+    // Guards snapshot writes, so a periodic write and the shutdown write never overlap.
+    private static final Object snapshotLock = new Object();
+
     // Stores arrays of items for players whose Ender Chest restorations are pending.
     private static Map<UUID, ItemStack[]> pendingRestorations = new HashMap<>();
 
+    // Pending restorations as last written to pendingRestorations.yml. Snapshots take their restorations
+    // from here, so a snapshot never holds restorations that are not on disk.
+    private static volatile EnderShareSnapshot.Restorations persistedRestorations = EnderShareSnapshot.Restorations.NONE;
+
+    // Orders restoration file writes, so an older state never replaces a newer one.
+    private static final Object restorationsLock = new Object();
+    private static long restorationsGeneration;
+    private static long writtenRestorationsGeneration;
+    private static boolean restorationsSaveScheduled;
+
     // Stores pending sharing invitations keyed by the invitee's UUID.
-    private static Map<UUID, PendingInvitation> pendingInvitations = new HashMap<>();
+    // Concurrent because tab completion reads it from an asynchronous thread.
+    private static Map<UUID, PendingInvitation> pendingInvitations = new ConcurrentHashMap<>();
 
     /**
      * Represents a pending invitation from one player to another.
@@ -79,47 +105,256 @@ public class EnderShareManager {
 
     /**
      * Initializes the EnderShareManager.
-     * Loads any existing sessions from persistent storage.
+     * Configures record compression, starts the persistence queue, loads any existing sessions
+     * from persistent storage and starts moving idle sessions off-heap.
      *
      * @param p The plugin instance.
      */
     public static void initialize(JavaPlugin p) {
         plugin = p;
+        EnderShareCompression.configure(plugin);
+        queue = new EnderSharePersistenceQueue(plugin, "EnderShare-Writer");
+        queue.startMonitor();
+        store = new EnderShareSessionStore(plugin.getDataFolder(), EnderShareStorage.files(), queue, true);
         loadSessions();
+        if (EnderShareCompression.needsDictionary()) {
+            trainCompressionDictionary();
+        }
+        EnderShareOffHeapTier.start(plugin);
+    }
+
+    /**
+     * Trains the compression dictionary from the contents of all loaded sessions.
+     * Until enough samples exist, records are compressed with plain deflate.
+     */
+    private static void trainCompressionDictionary() {
+        List<byte[]> samples = new ArrayList<>();
+        for (EnderShareSession session : getAllSessions()) {
+            samples.add(EnderShareItemCodec.encode(session.getContents()).toByteArray());
+        }
+        if (EnderShareCompression.trainDictionary(samples)) {
+            plugin.getLogger().info("Trained compression dictionary from " + samples.size() + " session(s).");
+        }
     }
 
     /**
      * Loads sharing sessions from disk. Files are stored in the "chestdata" folder.
+     * Sessions whose file still has the modification time and size recorded in the snapshot are
+     * restored from its index without decoding their contents. Remaining files are read and decoded in parallel; only the creation of the
+     * shared inventories happens on the calling (main) thread. Corrupt files are quarantined and reported.
      */
     private static void loadSessions() {
-        sessions.clear();
+        store.sessions.clear();
         File chestDataFolder = new File(plugin.getDataFolder(), "chestdata");
         if (!chestDataFolder.exists()) {
             chestDataFolder.mkdirs();
-            return;
         }
-        File[] sessionFiles = chestDataFolder.listFiles((dir, name) -> name.endsWith(".yml"));
-        if (sessionFiles == null) return;
+        startupSnapshot = null;
+        if (plugin.getConfig().getBoolean("snapshot.enabled", true)) {
+            startupSnapshot = EnderShareSnapshot.open(plugin.getDataFolder());
+        } else {
+            new File(plugin.getDataFolder(), EnderShareSnapshot.FILE_NAME).delete();
+        }
 
-        for (File sessionFile : sessionFiles) {
-            YamlConfiguration config = YamlConfiguration.loadConfiguration(sessionFile);
-            String sessionId = sessionFile.getName().replace(".yml", "");
-            UUID p1 = UUID.fromString(config.getString("player1"));
-            UUID p2 = UUID.fromString(config.getString("player2"));
+        // Item index entries written with the snapshot, used for the sessions adopted from it.
+        Map<String, EnderShareItemIndex.Persisted> persistedIndex = startupSnapshot != null
+                ? EnderShareItemIndex.read(plugin.getDataFolder()) : Collections.emptyMap();
+        List<EnderShareSession> unindexed = new ArrayList<>();
+
+        int fromSnapshot = 0;
+        List<File> sessionFiles = new ArrayList<>();
+        File[] files = chestDataFolder.listFiles((dir, name) -> name.endsWith(".yml"));
+        for (File file : files != null ? files : new File[0]) {
+            String sessionId = file.getName().substring(0, file.getName().length() - ".yml".length());
+            EnderShareSnapshot.SessionEntry entry = startupSnapshot != null ? startupSnapshot.sessions.get(sessionId) : null;
+            if (entry != null && EnderShareSnapshot.matches(entry, file)
+                    && adoptSnapshotEntry(entry, persistedIndex, unindexed)) {
+                fromSnapshot++;
+            } else {
+                sessionFiles.add(file);
+            }
+        }
+
+        int threads = plugin.getConfig().getInt("loader_threads",
+                Math.min(4, Runtime.getRuntime().availableProcessors()));
+        EnderShareSessionLoader.LoadReport report = EnderShareSessionLoader.load(chestDataFolder, sessionFiles, threads);
+
+        for (EnderShareSessionLoader.LoadedRecord record : report.records) {
+            if (store.sessions.containsKey(record.player1) || store.sessions.containsKey(record.player2)) {
+                plugin.getLogger().warning("Skipping session " + record.sessionId + ": a participant is already in another session.");
+                continue;
+            }
             // Create a new shared inventory.
             Inventory inv = Bukkit.createInventory(null, 54, "Shared Ender Chest");
-            // Load the stored inventory items.
-            for (String key : config.getConfigurationSection("inventory").getKeys(false)) {
-                int slot = Integer.parseInt(key);
-                ItemStack item = config.getItemStack("inventory." + key);
-                inv.setItem(slot, item);
+            inv.setContents(record.contents);
+            EnderShareSession session = new EnderShareSession(record.player1, record.player2, inv, record.sessionId);
+            session.seedContents(record.contents, true);
+            store.register(session);
+            EnderShareItemIndex.update(record.sessionId, record.contents, session.takeUnindexedSlots());
+        }
+        EnderShareItemIndex.indexInBackground(plugin, unindexed);
+        if (fromSnapshot > 0) {
+            plugin.getLogger().info("Restored " + fromSnapshot + " EnderShare session(s) from snapshot.");
+        }
+        report.log(plugin.getLogger());
+    }
+
+    /**
+     * Registers a session restored from the snapshot, leaving its contents encoded.
+     * Its item index entries are taken from the persisted index when they describe the same contents.
+     *
+     * @param entry          The snapshot entry.
+     * @param persistedIndex The persisted item index.
+     * @param unindexed      Receives the session if it still has to be indexed.
+     * @return true if the session was registered; false if a participant is already in a session.
+     */
+    private static boolean adoptSnapshotEntry(EnderShareSnapshot.SessionEntry entry,
+                                              Map<String, EnderShareItemIndex.Persisted> persistedIndex,
+                                              List<EnderShareSession> unindexed) {
+        if (store.sessions.containsKey(entry.player1) || store.sessions.containsKey(entry.player2)) {
+            return false;
+        }
+        EnderShareSession session = new EnderShareSession(entry.player1, entry.player2,
+                entry.sessionId.toString(), entry.blob, entry.checksum);
+        store.register(session);
+        EnderShareItemIndex.Persisted indexed = persistedIndex.get(session.getSessionId());
+        if (indexed != null && indexed.checksum == entry.checksum) {
+            EnderShareItemIndex.put(session.getSessionId(), indexed.slots);
+        } else {
+            unindexed.add(session);
+        }
+        return true;
+    }
+
+    /**
+     * Reads a session's contents from its file. Used when the encoded contents restored from the
+     * snapshot or held off-heap turn out to be unusable.
+     *
+     * @param session The session.
+     * @param cause   Why the snapshot contents could not be used.
+     * @return The contents from the session file, or an empty array if that is unreadable too.
+     */
+    static ItemStack[] readSessionContents(EnderShareSession session, Exception cause) {
+        plugin.getLogger().warning("Stored contents of session " + session.getSessionId()
+                + " are unusable (" + cause.getMessage() + "), reading its file instead.");
+        try {
+            return readSessionFile(session.getSessionId());
+        } catch (IOException e) {
+            plugin.getLogger().severe("Could not read session file " + session.getSessionId() + ".yml: " + e.getMessage());
+            return new ItemStack[54];
+        }
+    }
+
+    /**
+     * Reads and verifies a session's contents from its file. May run on any thread.
+     *
+     * @param sessionId The session identifier.
+     * @return The contents from the session file.
+     * @throws IOException If the file is missing, corrupt or cannot be decoded.
+     */
+    static ItemStack[] readSessionFile(String sessionId) throws IOException {
+        File sessionFile = new File(new File(plugin.getDataFolder(), "chestdata"), sessionId + ".yml");
+        try {
+            EnderShareStoreCursor.Record record = EnderShareStoreCursor.read(sessionFile);
+            record.verify();
+            return record.decode();
+        } catch (RuntimeException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Schedules periodic snapshot writes. The state is captured on the main thread and written by the
+     * persistence queue as non-critical work, so snapshots are skipped while session writes are behind.
+     */
+    public static void scheduleSnapshots() {
+        if (!plugin.getConfig().getBoolean("snapshot.enabled", true)) {
+            return;
+        }
+        long interval = Math.max(1, plugin.getConfig().getLong("snapshot.interval_minutes", 10)) * 60L * 20L;
+        Bukkit.getScheduler().runTaskTimer(plugin, () -> {
+            if (!queue.acceptsNonCritical()) {
+                plugin.getLogger().info("Skipping EnderShare snapshot while session writes are behind.");
+                return;
             }
-            EnderShareSession session = new EnderShareSession(p1, p2, inv, sessionId);
-            sessions.put(p1, session);
-            sessions.put(p2, session);
+            EnderShareSnapshot.Capture capture = EnderShareSnapshot.capture(getAllSessions(), persistedRestorations);
+            // Rough estimate of the cloned contents held until the snapshot is written.
+            long size = (long) capture.sessions.size() * 2048L;
+            queue.submit("snapshot", size, false, () -> writeSnapshot(capture));
+        }, interval, interval);
+    }
+
+    /**
+     * Writes a snapshot of the current state on the calling thread. Called on clean shutdown,
+     * after everything else, including the pending restorations, has been saved.
+     */
+    public static void saveSnapshot() {
+        if (!plugin.getConfig().getBoolean("snapshot.enabled", true)) {
+            return;
+        }
+        try {
+            writeSnapshot(EnderShareSnapshot.capture(getAllSessions(), persistedRestorations));
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not write EnderShare snapshot: " + e.getMessage());
+        }
+    }
+
+    private static void writeSnapshot(EnderShareSnapshot.Capture capture) throws IOException {
+        synchronized (snapshotLock) {
+            EnderShareSnapshot.write(plugin.getDataFolder(), capture);
         }
     }
 
+    /**
+     * Waits until every queued live write has reached disk. Must not be called on the main thread.
+     *
+     * @param timeoutMillis The maximum time to wait.
+     * @return The number of writes still pending when the wait ended.
+     */
+    static int awaitPersistence(long timeoutMillis) {
+        return queue.awaitIdle(timeoutMillis);
+    }
+
+    /**
+     * Waits for queued session writes to reach disk and stops the persistence queue.
+     * Called on shutdown before the snapshot is written.
+     */
+    public static void flushPersistence() {
+        long timeout = Math.max(1, plugin.getConfig().getLong("persistence.shutdown_timeout_seconds", 30)) * 1000L;
+        int remaining = queue.shutdown(timeout);
+        if (remaining > 0) {
+            plugin.getLogger().severe(remaining + " EnderShare write(s) did not complete before shutdown; "
+                    + "the affected sessions keep their last saved contents.");
+        }
+    }
+
+    /**
+     * Checks whether shared-chest editing is locked because session writes have fallen behind.
+     *
+     * @return true if editing is locked.
+     */
+    public static boolean isEditingLocked() {
+        return store.isEditingLocked();
+    }
+
+    /**
+     * Describes the persistence queue for admin status output.
+     *
+     * @return A one-line summary of the queue and of skipped saves.
+     */
+    public static String describePersistence() {
+        return queue.describe() + ", " + store.getElidedWrites() + " unchanged save(s) skipped";
+    }
+
+    /**
+     * Describes the off-heap tier for admin status output.
+     *
+     * @return A one-line summary of the tier.
+     */
+    public static String describeOffHeapTier() {
+        return EnderShareOffHeapTier.describe();
+    }
+
     /**
      * Checks if the given player is currently in a sharing session.
      *
@@ -127,7 +362,7 @@ public class EnderShareManager {
      * @return true if the player is sharing; false otherwise.
      */
     public static boolean isSharing(UUID playerId) {
-        return sessions.containsKey(playerId);
+        return store.sessions.containsKey(playerId);
     }
 
     /**
@@ -137,7 +372,7 @@ public class EnderShareManager {
      * @return The EnderShareSession if one exists, otherwise null.
      */
     public static EnderShareSession getSession(UUID playerId) {
-        return sessions.get(playerId);
+        return store.getSession(playerId);
     }
 
     /**
@@ -158,8 +393,8 @@ public class EnderShareManager {
      * @param session The session to add.
      */
     public static void addSession(EnderShareSession session) {
-        sessions.put(session.getPlayer1(), session);
-        sessions.put(session.getPlayer2(), session);
+        store.register(session);
+        EnderShareTrace.recordSessionStart(session);
         saveSession(session);
     }
 
@@ -170,64 +405,118 @@ public class EnderShareManager {
      * @param session The session to update.
      */
     public static void updateSessionInventory(Inventory inv, EnderShareSession session) {
-        session.setSharedInventory(inv);
-        saveSession(session);
+        store.updateSessionInventory(inv, session);
     }
 
     /**
-     * Removes an active session and deletes its persistent record.
+     * Removes an active session, closes it for anyone still viewing it and deletes its persistent record.
      *
      * @param playerId The UUID of one of the session participants.
      */
     public static void removeSession(UUID playerId) {
-        EnderShareSession session = sessions.get(playerId);
+        EnderShareSession session = store.sessions.get(playerId);
         if (session != null) {
-            sessions.remove(session.getPlayer1());
-            sessions.remove(session.getPlayer2());
+            EnderShareViewers.closeViewers(session);
+            EnderShareTrace.recordSessionEnd(session);
+            store.unregister(session);
+            EnderShareItemIndex.remove(session.getSessionId());
             removeSessionFromFile(session.getSessionId());
         }
     }
 
     /**
-     * Saves a sharing session to a YML file in the "chestdata" folder.
+     * Replaces every session and pending restoration with restored state.
+     * Current sessions are closed for their viewers and removed; the restored sessions are then
+     * saved through the persistence queue, which supersedes the deletion of any session they share an ID with.
      *
-     * @param session The session to save.
+     * @param restoredSessions The sessions to install.
+     * @param restorations     The pending restorations to install.
      */
-    private static void saveSession(EnderShareSession session) {
-        File chestDataFolder = new File(plugin.getDataFolder(), "chestdata");
-        if (!chestDataFolder.exists()) {
-            chestDataFolder.mkdirs();
+    static void replaceState(List<EnderShareSession> restoredSessions, Map<UUID, ItemStack[]> restorations) {
+        for (EnderShareSession session : getAllSessions()) {
+            removeSession(session.getPlayer1());
         }
-        File sessionFile = new File(chestDataFolder, session.getSessionId() + ".yml");
-        YamlConfiguration config = new YamlConfiguration();
-        config.set("session_id", session.getSessionId());
-        config.set("player1", session.getPlayer1().toString());
-        config.set("player2", session.getPlayer2().toString());
-        // Save non-null items from the shared inventory.
-        for (int i = 0; i < session.getSharedInventory().getSize(); i++) {
-            ItemStack item = session.getSharedInventory().getItem(i);
-            if (item != null) {
-                config.set("inventory." + i, item);
+        for (EnderShareSession session : restoredSessions) {
+            if (store.sessions.containsKey(session.getPlayer1()) || store.sessions.containsKey(session.getPlayer2())) {
+                plugin.getLogger().warning("Skipping restored session " + session.getSessionId()
+                        + ": a participant is already in another session.");
+                continue;
             }
+            addSession(session);
         }
-        try {
-            config.save(sessionFile);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        pendingRestorations.clear();
+        pendingRestorations.putAll(restorations);
+        savePendingRestorations();
+    }
+
+    /**
+     * Saves a sharing session to a YML file in the "chestdata" folder.
+     * Nothing is written if the contents are the same as those last persisted, such as after a look-only open.
+     *
+     * @param session The session to save.
+     */
+    static void saveSession(EnderShareSession session) {
+        saveSession(session, false);
+    }
+
+    /**
+     * Saves a sharing session to a YML file in the "chestdata" folder through the live store.
+     *
+     * @param session The session to save.
+     * @param force   true to write even if the contents match those last persisted, as compaction does
+     *                to rewrite every file in the current format.
+     */
+    static void saveSession(EnderShareSession session, boolean force) {
+        store.save(session, force);
     }
 
     /**
-     * Deletes the session file corresponding to the given session ID.
+     * Builds the text of a session file.
      *
      * @param sessionId The session identifier.
+     * @param player1   The first player's UUID.
+     * @param player2   The second player's UUID.
+     * @param items     The shared contents.
+     * @return The session record.
      */
-    private static void removeSessionFromFile(String sessionId) {
-        File chestDataFolder = new File(plugin.getDataFolder(), "chestdata");
-        File sessionFile = new File(chestDataFolder, sessionId + ".yml");
-        if (sessionFile.exists()) {
-            sessionFile.delete();
-        }
+    static String sessionRecord(String sessionId, UUID player1, UUID player2, ItemStack[] items) {
+        return new String(sessionRecordBytes(sessionId, player1, player2, items), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds the UTF-8 bytes of a session file in the calling thread's reusable buffers.
+     * The only allocation proportional to the record is the returned array.
+     *
+     * @param sessionId The session identifier.
+     * @param player1   The first player's UUID.
+     * @param player2   The second player's UUID.
+     * @param items     The shared contents.
+     * @return The session record.
+     */
+    static byte[] sessionRecordBytes(String sessionId, UUID player1, UUID player2, ItemStack[] items) {
+        // The record only holds plain scalars, so it is written directly instead of through a YamlConfiguration tree.
+        EnderShareItemCodec.Buffer record = EnderShareItemCodec.records();
+        record.writeAscii("session_id: '");
+        byte[] id = sessionId.getBytes(StandardCharsets.UTF_8);
+        record.write(id, 0, id.length);
+        record.writeAscii("'\nplayer1: '" + player1 + "'\nplayer2: '" + player2 + "'\nformat: "
+                + EnderShareCompression.FORMAT_ENVELOPE + "\ncontents: '");
+        // Store the contents as a single, optionally compressed, record guarded by a checksum.
+        int contentsStart = record.length;
+        EnderShareCompression.encodeTo(EnderShareItemCodec.encode(items), record);
+        CRC32 crc = new CRC32();
+        crc.update(record.data, contentsStart, record.length - contentsStart);
+        record.writeAscii("'\nchecksum: '" + Long.toHexString(crc.getValue()) + "'\n");
+        return record.toByteArray();
+    }
+
+    /**
+     * Deletes the session file corresponding to the given session ID, replacing any pending write of it.
+     *
+     * @param sessionId The session identifier.
+     */
+    static void removeSessionFromFile(String sessionId) {
+        store.delete(sessionId);
     }
 
     // ----- Pending Restoration Methods -----
@@ -235,22 +524,38 @@ public class EnderShareManager {
     /**
      * Sets the pending restoration items for a player.
      * These items will later be restored to the player's Ender Chest when they come online.
+     * The array must not be modified afterwards. The restorations file is rewritten at the end of the tick.
      *
      * @param playerId The player's UUID.
      * @param items    The array of ItemStacks to restore.
      */
     public static void setPendingRestoration(UUID playerId, ItemStack[] items) {
         pendingRestorations.put(playerId, items);
+        queueRestorationsSave();
     }
 
     /**
      * Retrieves and removes pending restoration items for a player.
+     * The restorations file is rewritten at the end of the tick.
      *
      * @param playerId The player's UUID.
      * @return The saved ItemStack array, or null if none exist.
      */
     public static ItemStack[] getPendingRestoration(UUID playerId) {
-        return pendingRestorations.remove(playerId);
+        ItemStack[] items = pendingRestorations.remove(playerId);
+        if (items != null) {
+            queueRestorationsSave();
+        }
+        return items;
+    }
+
+    /**
+     * Returns a copy of all pending restorations.
+     *
+     * @return A map of player UUIDs to their pending restoration items.
+     */
+    public static Map<UUID, ItemStack[]> getPendingRestorations() {
+        return new HashMap<>(pendingRestorations);
     }
 
     /**
@@ -264,87 +569,249 @@ public class EnderShareManager {
     }
 
     /**
-     * Serializes an array of ItemStacks to a YAML-formatted String.
+     * Serializes an array of ItemStacks into a stored record string.
+     * Items are encoded by the binary item codec into reusable buffers and wrapped in a
+     * compression envelope, without building per-slot keys or a YAML tree.
      *
      * @param items The ItemStack array.
-     * @return The YAML string representation.
+     * @return The stored record, in format {@link EnderShareCompression#FORMAT_ENVELOPE}.
      */
     public static String serializeItemArray(ItemStack[] items) {
-        YamlConfiguration config = new YamlConfiguration();
-        for (int i = 0; i < items.length; i++) {
-            ItemStack item = items[i];
-            if (item != null) {
-                config.set("slot." + i, item);
-            }
-        }
-        return config.saveToString();
+        return EnderShareCompression.encode(EnderShareItemCodec.encode(items));
     }
 
     /**
-     * Deserializes a YAML string into an ItemStack array of a given size.
+     * Deserializes a record produced by {@link #serializeItemArray(ItemStack[])} into an ItemStack array of a given size.
+     * Malformed data is logged and yields an empty array.
      *
-     * @param data The YAML string.
+     * @param data The stored record.
      * @param size The expected array size.
      * @return The deserialized ItemStack array.
      */
     public static ItemStack[] deserializeItemArray(String data, int size) {
-        Inventory inv = Bukkit.createInventory(null, size, "temp");
-        YamlConfiguration config = new YamlConfiguration();
         try {
-            config.loadFromString(data);
+            return decodeItemArray(data, EnderShareCompression.FORMAT_ENVELOPE, size);
         } catch (Exception e) {
             e.printStackTrace();
-            return inv.getContents();
+            return new ItemStack[size];
         }
-        for (String key : config.getKeys(false)) {
-            if (key.startsWith("slot.")) {
-                int slot = Integer.parseInt(key.substring(5));
-                if (slot < size) {
-                    inv.setItem(slot, config.getItemStack(key));
-                }
-            }
+    }
+
+    /**
+     * Decodes a stored record of any supported format straight into an ItemStack array.
+     * Does not touch the server and is safe to call from worker threads.
+     *
+     * @param data   The stored record.
+     * @param format The format recorded alongside the data.
+     * @param size   The expected array size.
+     * @return The decoded ItemStack array.
+     * @throws IOException If the record is malformed.
+     */
+    static ItemStack[] decodeItemArray(String data, int format, int size) throws IOException {
+        if (format == EnderShareCompression.FORMAT_PLAIN) {
+            return decodeYamlItemArray(data, size);
+        }
+        if (format != EnderShareCompression.FORMAT_ENVELOPE) {
+            throw new IOException("unsupported record format " + format);
         }
-        return inv.getContents();
+        EnderShareCompression.Payload payload = EnderShareCompression.decode(data);
+        if (payload.isYaml()) {
+            return decodeYamlItemArray(new String(payload.data, payload.offset, payload.length, StandardCharsets.UTF_8), size);
+        }
+        return EnderShareItemCodec.decode(payload.data, payload.offset, payload.length, size);
     }
 
     /**
-     * Saves all pending restorations to disk so that they persist across server restarts.
+     * Decodes the YAML text written by earlier versions, where each item is stored under "slot.&lt;index&gt;".
+     *
+     * @param data The YAML string.
+     * @param size The expected array size.
+     * @return The decoded ItemStack array.
+     * @throws IOException If the data is not valid YAML.
      */
-    public static void savePendingRestorations() {
-        File pendingFile = new File(plugin.getDataFolder(), "pendingRestorations.yml");
+    private static ItemStack[] decodeYamlItemArray(String data, int size) throws IOException {
+        ItemStack[] items = new ItemStack[size];
         YamlConfiguration config = new YamlConfiguration();
-        for (Map.Entry<UUID, ItemStack[]> entry : pendingRestorations.entrySet()) {
-            String serialized = serializeItemArray(entry.getValue());
-            config.set(entry.getKey().toString(), serialized);
+        try {
+            config.loadFromString(data);
+        } catch (InvalidConfigurationException e) {
+            throw new IOException("unreadable YAML", e);
+        }
+        ConfigurationSection slots = config.getConfigurationSection("slot");
+        if (slots == null) {
+            return items;
+        }
+        for (String key : slots.getKeys(false)) {
+            int slot = Integer.parseInt(key);
+            if (slot >= 0 && slot < size) {
+                items[slot] = slots.getItemStack(key);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Computes the checksum stored alongside serialized contents.
+     *
+     * @param data The serialized contents.
+     * @return The CRC32 of the UTF-8 encoded data, as a hex string.
+     */
+    static String checksum(String data) {
+        CRC32 crc = new CRC32();
+        crc.update(data.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Schedules a write of the pending restorations through the persistence queue at the end of the
+     * current tick, so that several changes in one tick cost a single write.
+     */
+    private static void queueRestorationsSave() {
+        if (restorationsSaveScheduled) {
+            return;
         }
+        restorationsSaveScheduled = true;
+        Bukkit.getScheduler().runTask(plugin, () -> {
+            restorationsSaveScheduled = false;
+            long generation = ++restorationsGeneration;
+            Map<UUID, ItemStack[]> restorations = new HashMap<>(pendingRestorations);
+            queue.submit("restorations", 256L + restorations.size() * 2048L, true,
+                    () -> writePendingRestorations(generation, restorations));
+        });
+    }
+
+    /**
+     * Saves all pending restorations to disk on the calling thread so that they persist across server restarts.
+     * Each restoration is stored as an optionally compressed record guarded by a checksum.
+     * Must be called on the main thread.
+     */
+    public static void savePendingRestorations() {
         try {
-            config.save(pendingFile);
+            writePendingRestorations(++restorationsGeneration, new HashMap<>(pendingRestorations));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Writes a state of the pending restorations, unless a newer state has already been written.
+     * May run on any thread.
+     *
+     * @param generation   The order in which the state was taken on the main thread.
+     * @param restorations The pending restorations.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writePendingRestorations(long generation, Map<UUID, ItemStack[]> restorations) throws IOException {
+        File pendingFile = new File(plugin.getDataFolder(), "pendingRestorations.yml");
+        byte[] data = restorationsRecordBytes(restorations);
+        synchronized (restorationsLock) {
+            if (generation <= writtenRestorationsGeneration) {
+                return;
+            }
+            store.getStorage().write(pendingFile.toPath(), data);
+            writtenRestorationsGeneration = generation;
+            persistedRestorations = new EnderShareSnapshot.Restorations(restorations, data);
+        }
+    }
+
+    /**
+     * Builds the contents of a restorations file.
+     *
+     * @param restorations The pending restorations.
+     * @return The UTF-8 bytes of the file.
+     */
+    static byte[] restorationsRecordBytes(Map<UUID, ItemStack[]> restorations) {
+        YamlConfiguration config = new YamlConfiguration();
+        for (Map.Entry<UUID, ItemStack[]> entry : restorations.entrySet()) {
+            String contents = serializeItemArray(entry.getValue());
+            String key = entry.getKey().toString();
+            config.set(key + ".format", EnderShareCompression.FORMAT_ENVELOPE);
+            config.set(key + ".checksum", checksum(contents));
+            config.set(key + ".contents", contents);
+        }
+        return config.saveToString().getBytes(StandardCharsets.UTF_8);
+    }
+
     /**
      * Loads pending restorations from persistent storage.
+     * They are taken from the startup snapshot when it was written for exactly the current file.
+     * Entries written before records were versioned hold the serialized items directly.
      */
     public static void loadPendingRestorations() {
         File pendingFile = new File(plugin.getDataFolder(), "pendingRestorations.yml");
-        if (!pendingFile.exists()) {
+        EnderShareSnapshot.Loaded snapshot = startupSnapshot;
+        startupSnapshot = null;
+        byte[] data = null;
+        if (pendingFile.exists()) {
+            try {
+                data = Files.readAllBytes(pendingFile.toPath());
+            } catch (IOException e) {
+                plugin.getLogger().severe("Could not read pendingRestorations.yml: " + e.getMessage());
+                return;
+            }
+        }
+        if (data != null && (snapshot == null || !snapshot.coversRestorations(data) || !loadSnapshotRestorations(snapshot))) {
+            readPendingRestorations(new String(data, StandardCharsets.UTF_8));
+        }
+        persistedRestorations = new EnderShareSnapshot.Restorations(new HashMap<>(pendingRestorations), data);
+    }
+
+    /**
+     * Reads pending restorations from the text of the restorations file.
+     *
+     * @param text The file's text.
+     */
+    private static void readPendingRestorations(String text) {
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.loadFromString(text);
+        } catch (InvalidConfigurationException e) {
+            plugin.getLogger().severe("pendingRestorations.yml is unreadable: " + e.getMessage());
             return;
         }
-        YamlConfiguration config = YamlConfiguration.loadConfiguration(pendingFile);
         for (String key : config.getKeys(false)) {
-            String serialized = config.getString(key);
-            if (serialized != null) {
-                try {
-                    UUID playerUuid = UUID.fromString(key);
-                    ItemStack[] items = deserializeItemArray(serialized, 27);
-                    pendingRestorations.put(playerUuid, items);
-                } catch (Exception e) {
-                    e.printStackTrace();
+            try {
+                UUID playerUuid = UUID.fromString(key);
+                ConfigurationSection record = config.getConfigurationSection(key);
+                if (record == null) {
+                    String serialized = config.getString(key);
+                    if (serialized != null) {
+                        pendingRestorations.put(playerUuid, decodeItemArray(serialized, EnderShareCompression.FORMAT_PLAIN, 27));
+                    }
+                    continue;
                 }
+                String contents = record.getString("contents");
+                if (contents == null || !checksum(contents).equals(record.getString("checksum"))) {
+                    plugin.getLogger().warning("Skipping corrupt pending restoration for " + key);
+                    continue;
+                }
+                pendingRestorations.put(playerUuid, decodeItemArray(contents,
+                        record.getInt("format", EnderShareCompression.FORMAT_PLAIN), 27));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Loads pending restorations from the startup snapshot.
+     *
+     * @param snapshot The snapshot.
+     * @return true if every restoration was decoded; false to fall back to the restorations file.
+     */
+    private static boolean loadSnapshotRestorations(EnderShareSnapshot.Loaded snapshot) {
+        Map<UUID, ItemStack[]> restored = new HashMap<>();
+        for (Map.Entry<UUID, EnderShareSnapshot.SessionEntry> entry : snapshot.restorations.entrySet()) {
+            try {
+                restored.put(entry.getKey(), EnderShareSnapshot.decodeRestoration(entry.getValue()));
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().warning("Snapshot restorations are unusable (" + e.getMessage() + "), reading "
+                        + "pendingRestorations.yml instead.");
+                return false;
             }
         }
+        pendingRestorations.putAll(restored);
+        return true;
     }
 
     // ----- Pending Invitation Methods -----
@@ -366,8 +833,11 @@ public class EnderShareManager {
                 pendingInvitations.remove(invitee);
                 Player inviteePlayer = Bukkit.getPlayer(invitee);
                 if (inviteePlayer != null && inviteePlayer.isOnline()) {
-                    inviteePlayer.sendMessage(ChatColor.YELLOW + "Your invitation from " +
-                            Bukkit.getOfflinePlayer(inviter).getName() + " has expired.");
+                    EnderShareNameCache.resolve(inviter, name -> {
+                        if (inviteePlayer.isOnline()) {
+                            inviteePlayer.sendMessage(ChatColor.YELLOW + "Your invitation from " + name + " has expired.");
+                        }
+                    });
                 }
             }
         }, timeoutSeconds * 20L);
@@ -393,6 +863,24 @@ public class EnderShareManager {
         return invitation;
     }
 
+    /**
+     * Returns the inviter of a player's valid pending invitation without consuming it.
+     * Safe to call from asynchronous threads.
+     *
+     * @param invitee The UUID of the invitee.
+     * @return The inviter's UUID, or null if there is no valid invitation.
+     */
+    public static UUID peekPendingInviter(UUID invitee) {
+        PendingInvitation invitation = pendingInvitations.get(invitee);
+        if (invitation == null)
+            return null;
+        int timeoutSeconds = EnderShare.getInstance().getConfig().getInt("penting_invitation_timeout", 60);
+        if (System.currentTimeMillis() - invitation.getTimestamp() > (timeoutSeconds * 1000L)) {
+            return null;
+        }
+        return invitation.getInviter();
+    }
+
     /**
      * Creates a shared inventory by merging the first 27 slots from each player's Ender Chest.
      * The resulting inventory has 54 slots with the first half for player1 and the second half for player2.
@@ -420,6 +908,52 @@ public class EnderShareManager {
      * @return A collection of EnderShareSession instances.
      */
     public static Collection<EnderShareSession> getAllSessions() {
-        return new HashSet<>(sessions.values());
+        return new HashSet<>(store.sessions.values());
+    }
+
+    /**
+     * Returns the identifiers of all active sessions.
+     *
+     * @return A set of session IDs.
+     */
+    public static Set<String> getSessionIds() {
+        Set<String> ids = new HashSet<>();
+        for (EnderShareSession session : store.sessions.values()) {
+            ids.add(session.getSessionId());
+        }
+        return ids;
+    }
+
+    /**
+     * Checks whether an active session has the given identifier.
+     *
+     * @param sessionId The session identifier.
+     * @return true if such a session is active; false otherwise.
+     */
+    public static boolean hasSessionId(String sessionId) {
+        for (EnderShareSession session : store.sessions.values()) {
+            if (session.getSessionId().equals(sessionId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the store holding the active sessions.
+     *
+     * @return The live session store.
+     */
+    public static EnderShareSessionStore getStore() {
+        return store;
+    }
+
+    /**
+     * Returns the plugin instance the manager was initialized with.
+     *
+     * @return The plugin instance.
+     */
+    static JavaPlugin getPlugin() {
+        return plugin;
     }
 }
\ No newline at end of file
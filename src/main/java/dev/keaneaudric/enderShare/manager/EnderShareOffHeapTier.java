@@ -0,0 +1,91 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Middle storage tier between live inventories and disk.
+ * Sessions nobody has opened for a while are encoded with the item codec into direct buffers,
+ * outside the Java heap, and their Inventory and ItemStacks are dropped. The inventory is
+ * recreated from the buffer when a participant next opens the chest.
+ * Direct memory used by the tier is capped; once the cap is reached, idle sessions stay on heap.
+ */
+final class EnderShareOffHeapTier {
+
+    // Interval between idle scans, in ticks (one minute).
+    private static final long SCAN_INTERVAL = 20L * 60L;
+
+    // Direct memory currently held by sessions in the tier. Only changed on the main thread.
+    private static long usedBytes;
+    private static int residentSessions;
+
+    private static long idleMillis = 5L * 60L * 1000L;
+    private static long maxBytes = 256L * 1024 * 1024;
+
+    private EnderShareOffHeapTier() {
+    }
+
+    /**
+     * Reads the tier settings and schedules the idle scan.
+     *
+     * @param plugin The plugin instance.
+     */
+    static void start(JavaPlugin plugin) {
+        if (!plugin.getConfig().getBoolean("offheap.enabled", true)) {
+            return;
+        }
+        idleMillis = Math.max(1, plugin.getConfig().getLong("offheap.idle_minutes", 5)) * 60L * 1000L;
+        maxBytes = Math.max(1, plugin.getConfig().getLong("offheap.max_megabytes", 256)) * 1024L * 1024L;
+        Bukkit.getScheduler().runTaskTimer(plugin, EnderShareOffHeapTier::evictIdle, SCAN_INTERVAL, SCAN_INTERVAL);
+    }
+
+    /**
+     * Moves every idle, unviewed session into the tier until the memory cap is reached.
+     * Runs on the main thread.
+     */
+    static void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        Set<EnderShareSession> viewed = EnderShareViewers.getViewedSessions();
+        CRC32 crc = new CRC32();
+        for (EnderShareSession session : EnderShareManager.getAllSessions()) {
+            if (!session.isMaterialized() || session.getLastAccess() > cutoff || viewed.contains(session)
+                    || session.hasInventoryViewers()) {
+                continue;
+            }
+            EnderShareItemCodec.Buffer encoded = EnderShareItemCodec.encode(session.getContents());
+            if (usedBytes + encoded.length > maxBytes) {
+                return;
+            }
+            ByteBuffer contents = ByteBuffer.allocateDirect(encoded.length);
+            contents.put(encoded.data, 0, encoded.length).flip();
+            crc.reset();
+            crc.update(encoded.data, 0, encoded.length);
+            usedBytes += encoded.length;
+            residentSessions++;
+            session.dematerialize(contents, (int) crc.getValue());
+        }
+    }
+
+    /**
+     * Records that a session left the tier.
+     *
+     * @param bytes The size of the session's buffer.
+     */
+    static void release(int bytes) {
+        usedBytes -= bytes;
+        residentSessions--;
+    }
+
+    /**
+     * Describes the tier for admin status output.
+     *
+     * @return A one-line summary.
+     */
+    static String describe() {
+        return residentSessions + " session(s) off-heap using " + usedBytes / 1024 + " KiB";
+    }
+}
@@ -0,0 +1,296 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded queue of pending disk writes, drained by a single writer thread.
+ * Writes are keyed, so repeated saves of the same session coalesce into the latest one
+ * while keeping the queue position and age of the first. Critical writes (session records)
+ * are never dropped; non-critical writes (periodic snapshots) are shed first when the queue fills.
+ * When the queue is full or its oldest write is older than the configured lag, the queue is
+ * saturated: shared-chest editing is locked until it drains, and admins are notified.
+ * The manager owns the live queue; the storage benchmark and the trace replay run their own instances,
+ * so their writes never hold up or lock live sessions.
+ */
+final class EnderSharePersistenceQueue {
+
+    /**
+     * A disk write performed by the writer thread.
+     */
+    interface Write {
+        void run() throws IOException;
+    }
+
+    private static final class Job {
+        final String key;
+        final Write write;
+        final long size;
+        final boolean critical;
+        final long enqueuedAt;
+
+        Job(String key, Write write, long size, boolean critical, long enqueuedAt) {
+            this.key = key;
+            this.write = write;
+            this.size = size;
+            this.critical = critical;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    // Delay before a failed critical write is retried.
+    private static final long RETRY_DELAY_MILLIS = 1000L;
+
+    private final Object lock = new Object();
+    // Pending writes in submission order, keyed so that repeated writes coalesce.
+    private final LinkedHashMap<String, Job> pending = new LinkedHashMap<>();
+    private Job inFlight;
+    private long pendingBytes;
+    private long coalesced;
+    private long shed;
+
+    private final JavaPlugin plugin;
+    private final Thread writer;
+    private final int maxPending;
+    private final long maxPendingBytes;
+    private final long lockAfterMillis;
+    private boolean saturated;
+
+    /**
+     * Reads the queue limits and starts the writer thread.
+     *
+     * @param plugin     The plugin instance.
+     * @param threadName The name of the writer thread.
+     */
+    EnderSharePersistenceQueue(JavaPlugin plugin, String threadName) {
+        this.plugin = plugin;
+        maxPending = Math.max(16, plugin.getConfig().getInt("persistence.max_pending", 256));
+        maxPendingBytes = Math.max(1L << 20, plugin.getConfig().getLong("persistence.max_pending_bytes", 16L * 1024 * 1024));
+        lockAfterMillis = Math.max(500L, plugin.getConfig().getLong("persistence.lock_after_millis", 5000L));
+        writer = new Thread(this::drain, threadName);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Starts notifying admins when the queue becomes saturated or recovers. Only the live queue does this.
+     */
+    void startMonitor() {
+        Bukkit.getScheduler().runTaskTimer(plugin, this::monitor, 20L, 20L);
+    }
+
+    /**
+     * Queues a write. A pending write with the same key is replaced.
+     * Non-critical writes are refused while the queue is saturated or more than half full.
+     *
+     * @param key      Identifies what is written; writes with equal keys coalesce.
+     * @param size     Approximate memory held by the write, in bytes.
+     * @param critical Whether the write must never be dropped.
+     * @param write    The write to perform.
+     * @return true if the write was queued; false if it was shed.
+     */
+    boolean submit(String key, long size, boolean critical, Write write) {
+        synchronized (lock) {
+            long now = System.currentTimeMillis();
+            Job previous = pending.get(key);
+            if (previous != null) {
+                // Keep the age of the oldest unsaved change, so lag reflects how far durability is behind.
+                pending.put(key, new Job(key, write, size, critical || previous.critical, previous.enqueuedAt));
+                pendingBytes += size - previous.size;
+                coalesced++;
+                return true;
+            }
+            if (!critical && (isSaturated(now) || pending.size() * 2 >= maxPending)) {
+                shed++;
+                return false;
+            }
+            if (pending.size() >= maxPending || pendingBytes + size > maxPendingBytes) {
+                shedNonCritical();
+            }
+            pending.put(key, new Job(key, write, size, critical, now));
+            pendingBytes += size;
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Checks whether non-critical work would currently be accepted.
+     *
+     * @return true if the queue is at most half full and not saturated.
+     */
+    boolean acceptsNonCritical() {
+        synchronized (lock) {
+            return !isSaturated(System.currentTimeMillis()) && pending.size() * 2 < maxPending;
+        }
+    }
+
+    /**
+     * Checks whether writes have fallen far enough behind that editing should be locked.
+     *
+     * @return true if the queue is saturated.
+     */
+    boolean isSaturated() {
+        synchronized (lock) {
+            return isSaturated(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Waits until every queued write has been performed. Must not be called on the main thread.
+     *
+     * @param timeoutMillis The maximum time to wait.
+     * @return The number of writes still pending when the wait ended.
+     */
+    int awaitIdle(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            while ((!pending.isEmpty() || inFlight != null) && System.currentTimeMillis() < deadline) {
+                try {
+                    lock.wait(Math.max(1L, deadline - System.currentTimeMillis()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return pending.size() + (inFlight != null ? 1 : 0);
+        }
+    }
+
+    /**
+     * Waits until every queued write has been performed, then stops the writer thread.
+     *
+     * @param timeoutMillis The maximum time to wait.
+     * @return The number of writes still pending when the wait ended.
+     */
+    int shutdown(long timeoutMillis) {
+        int remaining = awaitIdle(timeoutMillis);
+        writer.interrupt();
+        return remaining;
+    }
+
+    /**
+     * Describes the queue state for status output.
+     *
+     * @return A one-line summary.
+     */
+    String describe() {
+        synchronized (lock) {
+            long now = System.currentTimeMillis();
+            return pending.size() + " pending (" + pendingBytes / 1024 + " KiB), lag " + lag(now) + " ms, "
+                    + coalesced + " coalesced, " + shed + " shed" + (isSaturated(now) ? ", SATURATED" : "");
+        }
+    }
+
+    // Must hold lock.
+    private boolean isSaturated(long now) {
+        return pending.size() >= maxPending || pendingBytes >= maxPendingBytes || lag(now) >= lockAfterMillis;
+    }
+
+    // Must hold lock. Every pending write is checked: failed writes are re-queued at the tail with their
+    // original age, so the head is not always the oldest.
+    private long lag(long now) {
+        long oldest = now;
+        if (inFlight != null) {
+            oldest = inFlight.enqueuedAt;
+        }
+        for (Job job : pending.values()) {
+            oldest = Math.min(oldest, job.enqueuedAt);
+        }
+        return now - oldest;
+    }
+
+    // Must hold lock. Drops every pending non-critical write to make room for a critical one.
+    private void shedNonCritical() {
+        Iterator<Map.Entry<String, Job>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Job job = it.next().getValue();
+            if (!job.critical) {
+                it.remove();
+                pendingBytes -= job.size;
+                shed++;
+            }
+        }
+    }
+
+    /**
+     * Writer thread loop. Failed critical writes are retried unless a newer write for the same key has been queued.
+     */
+    private void drain() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Job job;
+            synchronized (lock) {
+                while (pending.isEmpty()) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                Iterator<Job> it = pending.values().iterator();
+                job = it.next();
+                it.remove();
+                pendingBytes -= job.size;
+                inFlight = job;
+            }
+            boolean failed = false;
+            try {
+                job.write.run();
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                plugin.getLogger().warning("Could not write " + job.key + ": " + e.getMessage());
+            }
+            synchronized (lock) {
+                inFlight = null;
+                if (failed && job.critical && !pending.containsKey(job.key)) {
+                    pending.put(job.key, job);
+                    pendingBytes += job.size;
+                }
+                lock.notifyAll();
+            }
+            if (failed) {
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs on the main thread once per second and notifies admins when the queue becomes saturated or recovers.
+     */
+    private void monitor() {
+        boolean now;
+        String state;
+        synchronized (lock) {
+            now = isSaturated(System.currentTimeMillis());
+            if (now == saturated) {
+                return;
+            }
+            saturated = now;
+            state = describe();
+        }
+        String message = now
+                ? "EnderShare storage is falling behind; shared chest editing is locked until it catches up. Queue: " + state
+                : "EnderShare storage has caught up; shared chest editing is unlocked.";
+        if (now) {
+            plugin.getLogger().warning(message);
+        } else {
+            plugin.getLogger().info(message);
+        }
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            if (player.hasPermission("endershare.admin")) {
+                player.sendMessage((now ? ChatColor.RED : ChatColor.GREEN) + message);
+            }
+        }
+    }
+}
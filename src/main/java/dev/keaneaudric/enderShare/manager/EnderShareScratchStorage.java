@@ -0,0 +1,53 @@
+package dev.keaneaudric.enderShare.manager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Storage of the scratch folders used by the storage benchmark and the trace replay.
+ * Writes go through another storage, recording when each file was last written and how long each write took.
+ */
+final class EnderShareScratchStorage implements EnderShareStorage {
+
+    private final EnderShareStorage delegate;
+
+    // Time of the last successful write of each file, from System.nanoTime().
+    final Map<String, Long> written = new ConcurrentHashMap<>();
+    // Duration of each successful write.
+    final List<Long> writeNanos = Collections.synchronizedList(new ArrayList<>());
+    // Set when the run ends; writes and deletes still queued are then dropped.
+    volatile boolean discarding;
+
+    /**
+     * Creates a scratch storage.
+     *
+     * @param delegate The storage files are written through.
+     */
+    EnderShareScratchStorage(EnderShareStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void write(Path target, byte[] data) throws IOException {
+        if (discarding) {
+            return;
+        }
+        long began = System.nanoTime();
+        delegate.write(target, data);
+        long now = System.nanoTime();
+        writeNanos.add(now - began);
+        written.put(target.getFileName().toString(), now);
+    }
+
+    @Override
+    public void delete(Path target) throws IOException {
+        if (!discarding) {
+            delegate.delete(target);
+        }
+    }
+}
@@ -1,11 +1,24 @@
 package dev.keaneaudric.enderShare.manager;
 
+import org.bukkit.Bukkit;
 import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.UUID;
+import java.util.zip.CRC32;
 
 /**
  * Represents a shared Ender Chest session between two players.
  * Contains both players’ UUIDs, the shared inventory, and a unique session identifier.
+ * Sessions restored from a snapshot, or idle sessions moved to the off-heap tier, keep their encoded
+ * contents until the inventory is next needed.
+ * Materialized sessions also publish an immutable, versioned snapshot of their contents. Each version
+ * shares the ItemStacks of slots that did not change with the previous one, so saves and other readers
+ * get a consistent view without copying all 54 slots, and may keep using it off the main thread.
+ * Sessions also remember a fingerprint of their last persisted contents, so saves that would rewrite
+ * the same contents can be skipped.
  */
 public class EnderShareSession {
     private final UUID player1;
@@ -13,6 +26,37 @@ public class EnderShareSession {
     private Inventory sharedInventory;
     private final String sessionId;
 
+    // Encoded contents of a session that has not been materialized yet, and their checksum.
+    private ByteBuffer storedContents;
+    private int storedChecksum;
+    // Size of storedContents when it was allocated by the off-heap tier, otherwise 0.
+    private int offHeapBytes;
+
+    // Time the shared inventory was last requested, in milliseconds.
+    private long lastAccess = System.currentTimeMillis();
+
+    // Incremented each time the session is saved.
+    private volatile int revision;
+
+    // Last published contents. The array and its ItemStacks are never modified once published.
+    private volatile ItemStack[] published;
+    // Incremented each time a snapshot with different contents is published.
+    private volatile int version;
+
+    // Per-slot hashes of the published snapshot, 0 for empty slots, and their combination.
+    // Only accessed on the main thread.
+    private int[] slotHashes;
+    private long fingerprint;
+    // Slots that changed in published snapshots since the item index last read them.
+    private long unindexedSlots = EnderShareItemIndex.ALL_SLOTS;
+
+    // Contents last written to or read from the session file, or null if unknown or a save is still queued,
+    // and their fingerprint. Set by the persistence queue once a write succeeds, so guarded by this session.
+    private ItemStack[] persistedContents;
+    private long persistedFingerprint;
+    // Whether storedContents are the same as the session file.
+    private boolean storedPersisted;
+
     /**
      * Creates a new sharing session with a freshly generated unique session identifier.
      *
@@ -42,6 +86,25 @@ public class EnderShareSession {
         this.sessionId = sessionId;
     }
 
+    /**
+     * Constructs a session whose contents are still encoded, as restored from a snapshot.
+     * The shared inventory is created the first time it is requested.
+     *
+     * @param player1        The first player's UUID.
+     * @param player2        The second player's UUID.
+     * @param sessionId      The session identifier.
+     * @param storedContents The contents encoded by the item codec.
+     * @param storedChecksum The CRC32 of the encoded contents.
+     */
+    EnderShareSession(UUID player1, UUID player2, String sessionId, ByteBuffer storedContents, int storedChecksum) {
+        this.player1 = player1;
+        this.player2 = player2;
+        this.sessionId = sessionId;
+        this.storedContents = storedContents;
+        this.storedChecksum = storedChecksum;
+        this.storedPersisted = true;
+    }
+
     /**
      * Returns the first player's UUID.
      *
@@ -61,11 +124,22 @@ public class EnderShareSession {
     }
 
     /**
-     * Returns the shared inventory for this session.
+     * Returns the shared inventory for this session, creating it from the encoded contents if needed.
+     * Must be called on the main thread.
      *
      * @return The shared Inventory.
      */
     public Inventory getSharedInventory() {
+        lastAccess = System.currentTimeMillis();
+        if (sharedInventory == null) {
+            Inventory inv = Bukkit.createInventory(null, 54, "Shared Ender Chest");
+            ItemStack[] contents = getContents();
+            inv.setContents(contents);
+            sharedInventory = inv;
+            // The decoded array is not shared with anything else, so it becomes the first published snapshot.
+            seedContents(contents, storedPersisted);
+            releaseStoredContents();
+        }
         return sharedInventory;
     }
 
@@ -75,7 +149,349 @@ public class EnderShareSession {
      * @param sharedInventory The new inventory state.
      */
     public void setSharedInventory(Inventory sharedInventory) {
+        lastAccess = System.currentTimeMillis();
         this.sharedInventory = sharedInventory;
+        releaseStoredContents();
+    }
+
+    /**
+     * Replaces the shared inventory with its encoded contents held off-heap.
+     * The inventory is recreated from them the next time it is requested.
+     *
+     * @param contents The contents encoded by the item codec, in a buffer owned by the off-heap tier.
+     * @param checksum The CRC32 of the encoded contents.
+     */
+    void dematerialize(ByteBuffer contents, int checksum) {
+        boolean persisted = published != null && matchesPersisted(published);
+        releaseStoredContents();
+        this.sharedInventory = null;
+        this.published = null;
+        this.slotHashes = null;
+        this.fingerprint = 0;
+        synchronized (this) {
+            this.persistedContents = null;
+        }
+        this.storedPersisted = persisted;
+        this.storedContents = contents;
+        this.storedChecksum = checksum;
+        this.offHeapBytes = contents.capacity();
+    }
+
+    private void releaseStoredContents() {
+        if (offHeapBytes > 0) {
+            EnderShareOffHeapTier.release(offHeapBytes);
+            offHeapBytes = 0;
+        }
+        storedContents = null;
+        storedPersisted = false;
+    }
+
+    /**
+     * Returns when the shared inventory was last requested.
+     *
+     * @return The time of last access, in milliseconds.
+     */
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * Checks whether the given inventory is this session's shared inventory, without creating it.
+     *
+     * @param inventory The inventory to compare.
+     * @return true if it is this session's shared inventory.
+     */
+    public boolean holds(Inventory inventory) {
+        return sharedInventory != null && sharedInventory == inventory;
+    }
+
+    /**
+     * Checks whether anyone has the shared inventory open, without creating it or counting as an access.
+     *
+     * @return true if the shared inventory exists and has viewers.
+     */
+    boolean hasInventoryViewers() {
+        return sharedInventory != null && !sharedInventory.getViewers().isEmpty();
+    }
+
+    /**
+     * Returns whether the shared inventory has been created.
+     *
+     * @return true if the contents live in an Inventory; false if they are still encoded.
+     */
+    public boolean isMaterialized() {
+        return sharedInventory != null;
+    }
+
+    /**
+     * Returns the session's contents without creating the shared inventory.
+     * For a materialized session this publishes and returns the current snapshot; otherwise the encoded
+     * contents are decoded into a new array. Encoded contents that fail their checksum are re-read from
+     * the session file. Must be called on the main thread.
+     *
+     * @return The 54 shared slots. The array and its items must not be modified.
+     */
+    public ItemStack[] getContents() {
+        if (sharedInventory != null) {
+            return publish();
+        }
+        byte[] bytes = new byte[storedContents.remaining()];
+        storedContents.duplicate().get(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        try {
+            if ((int) crc.getValue() != storedChecksum) {
+                throw new IOException("checksum mismatch");
+            }
+            return EnderShareItemCodec.decode(bytes, 0, bytes.length, 54);
+        } catch (IOException | RuntimeException e) {
+            return EnderShareManager.readSessionContents(this, e);
+        }
+    }
+
+    /**
+     * Returns the last published snapshot without looking at the shared inventory.
+     * Safe to call from any thread; the result may lag behind edits made since the last save.
+     *
+     * @return The 54 shared slots, or null if the session is not materialized or has not published yet.
+     *         The array and its items must not be modified.
+     */
+    public ItemStack[] getPublishedContents() {
+        return published;
+    }
+
+    /**
+     * Returns the version of the last published snapshot.
+     *
+     * @return The snapshot version.
+     */
+    public int getContentsVersion() {
+        return version;
+    }
+
+    /**
+     * Compares the shared inventory with the last published snapshot and publishes a new version if
+     * any slot differs. Unchanged slots keep the previous version's ItemStack; changed slots are cloned.
+     *
+     * @return The current snapshot.
+     */
+    private ItemStack[] publish() {
+        ItemStack[] previous = published;
+        ItemStack[] next = null;
+        if (slotHashes == null) {
+            slotHashes = new int[54];
+            fingerprint = 0;
+        }
+        for (int slot = 0; slot < 54; slot++) {
+            ItemStack live = sharedInventory.getItem(slot);
+            if (live != null && live.getType().isAir()) {
+                live = null;
+            }
+            ItemStack old = previous != null ? previous[slot] : null;
+            if (previous != null && (live == null ? old == null : live.equals(old))) {
+                if (next != null) {
+                    next[slot] = old;
+                }
+                continue;
+            }
+            if (next == null) {
+                // First changed slot: share everything before it with the previous version.
+                next = new ItemStack[54];
+                if (previous != null) {
+                    System.arraycopy(previous, 0, next, 0, slot);
+                }
+            }
+            next[slot] = live != null ? live.clone() : null;
+            unindexedSlots |= 1L << slot;
+            // Roll the fingerprint forward by replacing this slot's contribution.
+            int hash = slotHash(next[slot]);
+            fingerprint += mix(slot, hash) - mix(slot, slotHashes[slot]);
+            slotHashes[slot] = hash;
+        }
+        if (next == null) {
+            return previous;
+        }
+        published = next;
+        version++;
+        return next;
+    }
+
+    /**
+     * Makes freshly decoded contents the published snapshot of a materialized session.
+     * The array must not be shared with anything that modifies it.
+     *
+     * @param contents  The contents the shared inventory was filled from.
+     * @param persisted Whether the contents are the same as the session file.
+     */
+    void seedContents(ItemStack[] contents, boolean persisted) {
+        slotHashes = new int[54];
+        fingerprint = 0;
+        for (int slot = 0; slot < 54; slot++) {
+            slotHashes[slot] = slotHash(contents[slot]);
+            fingerprint += mix(slot, slotHashes[slot]);
+        }
+        published = contents;
+        version++;
+        unindexedSlots = EnderShareItemIndex.ALL_SLOTS;
+        synchronized (this) {
+            persistedContents = persisted ? contents : null;
+            persistedFingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Checks whether contents are the same as those last persisted for this session.
+     * Identical snapshots match at once; otherwise the fingerprints are compared, and equal fingerprints
+     * are confirmed slot by slot so a hash collision can never skip a real change.
+     *
+     * @param contents Contents returned by {@link #getContents()}.
+     * @return true if writing the contents would not change the session file.
+     */
+    boolean matchesPersisted(ItemStack[] contents) {
+        ItemStack[] persisted;
+        long persistedHash;
+        synchronized (this) {
+            persisted = persistedContents;
+            persistedHash = persistedFingerprint;
+        }
+        if (persisted == null) {
+            return false;
+        }
+        if (contents == persisted) {
+            return true;
+        }
+        if (contentsFingerprint(contents) != persistedHash) {
+            return false;
+        }
+        for (int slot = 0; slot < 54; slot++) {
+            ItemStack item = contents[slot];
+            ItemStack other = persisted[slot];
+            if (item != other && (item == null || !item.equals(other))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the slots whose published contents changed since the last call, and forgets them.
+     * Every slot is reported until the first call and after the contents are seeded anew.
+     * Must be called on the main thread.
+     *
+     * @return Bitmask of the changed slots.
+     */
+    long takeUnindexedSlots() {
+        long changed = unindexedSlots;
+        unindexedSlots = 0;
+        return changed;
+    }
+
+    /**
+     * Returns the fingerprint of contents, reusing the rolled fingerprint for the published snapshot.
+     * Must be called on the main thread.
+     *
+     * @param contents Contents returned by {@link #getContents()}.
+     * @return The fingerprint to pass to {@link #markPersisted(ItemStack[], long, int)}.
+     */
+    long contentsFingerprint(ItemStack[] contents) {
+        return contents == published ? fingerprint : fingerprintOf(contents);
+    }
+
+    /**
+     * Records that contents reached the session file. Called by the persistence queue's writer thread
+     * after the write succeeded; ignored if the session was saved again since, so that only the latest
+     * save can make later saves of the same contents be skipped.
+     *
+     * @param contents    The contents written.
+     * @param fingerprint Their fingerprint, from {@link #contentsFingerprint(ItemStack[])}.
+     * @param revision    The revision returned by {@link #markSaved()} for this save.
+     */
+    synchronized void markPersisted(ItemStack[] contents, long fingerprint, int revision) {
+        if (this.revision == revision) {
+            persistedContents = contents;
+            persistedFingerprint = fingerprint;
+        }
+    }
+
+    private static long fingerprintOf(ItemStack[] contents) {
+        long combined = 0;
+        for (int slot = 0; slot < 54; slot++) {
+            combined += mix(slot, slotHash(contents[slot]));
+        }
+        return combined;
+    }
+
+    private static int slotHash(ItemStack item) {
+        if (item == null) {
+            return 0;
+        }
+        int hash = item.hashCode();
+        return hash != 0 ? hash : 1;
+    }
+
+    // Spreads a slot's hash over 64 bits so that contributions of different slots combine by addition.
+    private static long mix(int slot, int hash) {
+        if (hash == 0) {
+            return 0;
+        }
+        long x = ((long) slot << 32 | (hash & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Returns the encoded contents of a session that has not been materialized.
+     *
+     * @return The encoded contents, or null if the session is materialized.
+     */
+    ByteBuffer getStoredContents() {
+        return storedContents == null ? null : storedContents.duplicate();
+    }
+
+    /**
+     * Returns the checksum of the encoded contents.
+     *
+     * @return The CRC32 of {@link #getStoredContents()}.
+     */
+    int getStoredChecksum() {
+        return storedChecksum;
+    }
+
+    /**
+     * Returns whether the encoded contents of a session that has not been materialized are the same as
+     * its session file. Must be called on the main thread.
+     *
+     * @return true if the stored contents were persisted.
+     */
+    boolean isStoredPersisted() {
+        return storedContents != null && storedPersisted;
+    }
+
+    /**
+     * Returns the contents last written to or read from the session file.
+     *
+     * @return The persisted contents, or null if they are unknown or a save is still queued.
+     */
+    synchronized ItemStack[] getPersistedContents() {
+        return persistedContents;
+    }
+
+    /**
+     * Returns how many times the session has been saved.
+     *
+     * @return The save revision.
+     */
+    int getRevision() {
+        return revision;
+    }
+
+    /**
+     * Records that the session is being saved. Until this save's write succeeds, no contents count as persisted.
+     *
+     * @return The new revision, identifying this save.
+     */
+    synchronized int markSaved() {
+        persistedContents = null;
+        return ++revision;
     }
 
     /**
@@ -86,4 +502,4 @@ public class EnderShareSession {
     public String getSessionId() {
         return sessionId;
     }
-}
\ No newline at end of file
+}
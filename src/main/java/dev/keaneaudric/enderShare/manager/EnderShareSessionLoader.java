@@ -0,0 +1,172 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Reads and decodes session files from the "chestdata" folder on a bounded worker pool.
+ * Each record is verified against its stored checksum; records that cannot be read are moved
+ * to a quarantine folder and reported instead of aborting the load.
+ */
+class EnderShareSessionLoader {
+
+    /**
+     * A session record decoded from disk, ready to be materialized on the main thread.
+     */
+    static class LoadedRecord {
+        final String sessionId;
+        final UUID player1;
+        final UUID player2;
+        final ItemStack[] contents;
+        final boolean legacy;
+
+        LoadedRecord(String sessionId, UUID player1, UUID player2, ItemStack[] contents, boolean legacy) {
+            this.sessionId = sessionId;
+            this.player1 = player1;
+            this.player2 = player2;
+            this.contents = contents;
+            this.legacy = legacy;
+        }
+    }
+
+    /**
+     * Summary of a load run.
+     */
+    static class LoadReport {
+        final List<LoadedRecord> records = new ArrayList<>();
+        final Map<String, String> quarantined = new LinkedHashMap<>();
+        int legacy;
+        long elapsedMillis;
+
+        /**
+         * Writes a summary of the load to the given logger.
+         *
+         * @param logger The plugin logger.
+         */
+        void log(Logger logger) {
+            logger.info("Loaded " + records.size() + " EnderShare session(s) in " + elapsedMillis + " ms ("
+                    + legacy + " without checksum, " + quarantined.size() + " quarantined).");
+            for (Map.Entry<String, String> entry : quarantined.entrySet()) {
+                logger.warning("Quarantined session file " + entry.getKey() + ": " + entry.getValue());
+            }
+        }
+    }
+
+    private EnderShareSessionLoader() {
+    }
+
+    /**
+     * Loads the given session files using up to {@code threads} workers.
+     * Files that fail to decode, fail their checksum, or reference a player that already
+     * belongs to another session are quarantined.
+     *
+     * @param chestDataFolder The folder containing session files.
+     * @param files           The session files to load.
+     * @param threads         The maximum number of worker threads.
+     * @return The load report, with records in file name order.
+     */
+    static LoadReport load(File chestDataFolder, List<File> files, int threads) {
+        long start = System.nanoTime();
+        LoadReport report = new LoadReport();
+        if (files.isEmpty()) {
+            report.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            return report;
+        }
+        File[] sessionFiles = files.toArray(new File[0]);
+        Arrays.sort(sessionFiles, Comparator.comparing(File::getName));
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, sessionFiles.length)),
+                new LoaderThreadFactory());
+        List<Future<LoadedRecord>> futures = new ArrayList<>(sessionFiles.length);
+        try {
+            for (File sessionFile : sessionFiles) {
+                futures.add(pool.submit(() -> readRecord(sessionFile)));
+            }
+            Set<UUID> participants = new HashSet<>();
+            for (int i = 0; i < sessionFiles.length; i++) {
+                File sessionFile = sessionFiles[i];
+                try {
+                    LoadedRecord record = futures.get(i).get();
+                    if (participants.contains(record.player1) || participants.contains(record.player2)) {
+                        quarantine(chestDataFolder, sessionFile, report, "participant already belongs to another session");
+                        continue;
+                    }
+                    participants.add(record.player1);
+                    participants.add(record.player2);
+                    if (record.legacy) {
+                        report.legacy++;
+                    }
+                    report.records.add(record);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    quarantine(chestDataFolder, sessionFile, report, cause.getMessage() != null
+                            ? cause.getMessage() : cause.getClass().getSimpleName());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        report.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * Reads, verifies and decodes a single session file. Runs on a worker thread.
+     *
+     * @param sessionFile The file to read.
+     * @return The decoded record.
+     * @throws IOException If the file cannot be read, is malformed or fails its checksum.
+     */
+    private static LoadedRecord readRecord(File sessionFile) throws IOException {
+        EnderShareStoreCursor.Record record = EnderShareStoreCursor.read(sessionFile);
+        record.verify();
+        ItemStack[] items;
+        try {
+            items = record.decode();
+        } catch (RuntimeException e) {
+            throw new IOException("undecodable contents", e);
+        }
+        return new LoadedRecord(record.sessionId, record.player1, record.player2, items, record.isLegacy());
+    }
+
+    /**
+     * Moves a bad session file into "chestdata/quarantine" so it is no longer loaded.
+     */
+    private static void quarantine(File chestDataFolder, File sessionFile, LoadReport report, String reason) {
+        report.quarantined.put(sessionFile.getName(), reason);
+        File quarantineFolder = new File(chestDataFolder, "quarantine");
+        if (!quarantineFolder.exists()) {
+            quarantineFolder.mkdirs();
+        }
+        File target = new File(quarantineFolder, sessionFile.getName() + "." + System.currentTimeMillis());
+        try {
+            Files.move(sessionFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Creates named daemon threads for the loader pool.
+     */
+    private static class LoaderThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "EnderShare-Loader-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
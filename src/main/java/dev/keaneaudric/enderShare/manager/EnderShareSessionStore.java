@@ -0,0 +1,201 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A set of active sessions and their files in one "chestdata" folder, written through one persistence queue
+ * and storage. The manager owns the live store. The storage benchmark and the trace replay build their own,
+ * over a scratch folder and their own queue, so they never see live sessions, reach live files or hold up
+ * live writes.
+ */
+public final class EnderShareSessionStore {
+
+    // Active sessions, keyed by each participant's UUID. Main thread only.
+    final Map<UUID, EnderShareSession> sessions = new HashMap<>();
+
+    private final File chestDataFolder;
+    private final EnderShareStorage storage;
+    private final EnderSharePersistenceQueue queue;
+    // Whether saves keep the item index up to date. Only the live store does.
+    private final boolean indexed;
+
+    // Saves skipped because the contents matched the last persisted ones.
+    private long elidedWrites;
+    // Saves requested on the main thread, and the time spent preparing them there.
+    private long saves;
+    private long saveNanos;
+
+    /**
+     * Creates a store.
+     *
+     * @param dataFolder The folder holding the "chestdata" folder.
+     * @param storage    The filesystem layer to write through.
+     * @param queue      The persistence queue that performs the writes.
+     * @param indexed    Whether saves update the item index.
+     */
+    EnderShareSessionStore(File dataFolder, EnderShareStorage storage, EnderSharePersistenceQueue queue, boolean indexed) {
+        this.chestDataFolder = new File(dataFolder, "chestdata");
+        this.storage = storage;
+        this.queue = queue;
+        this.indexed = indexed;
+    }
+
+    /**
+     * Retrieves the session a player participates in.
+     *
+     * @param playerId The player's UUID.
+     * @return The session, or null if the player is not in one.
+     */
+    public EnderShareSession getSession(UUID playerId) {
+        return sessions.get(playerId);
+    }
+
+    /**
+     * Registers a session under both participants.
+     *
+     * @param session The session to register.
+     */
+    void register(EnderShareSession session) {
+        sessions.put(session.getPlayer1(), session);
+        sessions.put(session.getPlayer2(), session);
+    }
+
+    /**
+     * Unregisters a session.
+     *
+     * @param session The session to unregister.
+     */
+    void unregister(EnderShareSession session) {
+        sessions.remove(session.getPlayer1());
+        sessions.remove(session.getPlayer2());
+    }
+
+    /**
+     * Updates a session's shared inventory contents and saves the update.
+     *
+     * @param inv     The updated shared inventory.
+     * @param session The session to update.
+     */
+    public void updateSessionInventory(Inventory inv, EnderShareSession session) {
+        session.setSharedInventory(inv);
+        save(session, false);
+    }
+
+    /**
+     * Checks whether editing is locked because this store's writes have fallen behind.
+     *
+     * @return true if editing is locked.
+     */
+    public boolean isEditingLocked() {
+        return queue.isSaturated();
+    }
+
+    /**
+     * Saves a sharing session to a YML file in the "chestdata" folder.
+     * The session's immutable contents snapshot is taken on the calling thread; the record is encoded and
+     * written by the persistence queue, which replaces any write of the same session that has not reached disk yet.
+     * The contents only count as persisted once the write has succeeded.
+     *
+     * @param session The session to save.
+     * @param force   true to write even if the contents match those last persisted, as compaction does
+     *                to rewrite every file in the current format.
+     */
+    void save(EnderShareSession session, boolean force) {
+        long began = System.nanoTime();
+        submitSave(session, force);
+        saves++;
+        saveNanos += System.nanoTime() - began;
+    }
+
+    private void submitSave(EnderShareSession session, boolean force) {
+        if (!chestDataFolder.exists()) {
+            chestDataFolder.mkdirs();
+        }
+        File sessionFile = new File(chestDataFolder, session.getSessionId() + ".yml");
+        ItemStack[] contents = session.getContents();
+        if (!force && session.matchesPersisted(contents)) {
+            elidedWrites++;
+            return;
+        }
+        long fingerprint = session.contentsFingerprint(contents);
+        int revision = session.markSaved();
+        if (indexed) {
+            EnderShareItemIndex.update(session.getSessionId(), contents, session.takeUnindexedSlots());
+        }
+        String sessionId = session.getSessionId();
+        UUID player1 = session.getPlayer1();
+        UUID player2 = session.getPlayer2();
+        queue.submit("session " + sessionId, estimateRecordSize(contents), true, () -> {
+            storage.write(sessionFile.toPath(), EnderShareManager.sessionRecordBytes(sessionId, player1, player2, contents));
+            session.markPersisted(contents, fingerprint, revision);
+        });
+    }
+
+    /**
+     * Deletes the session file corresponding to the given session ID, replacing any pending write of it.
+     *
+     * @param sessionId The session identifier.
+     */
+    void delete(String sessionId) {
+        File sessionFile = new File(chestDataFolder, sessionId + ".yml");
+        queue.submit("session " + sessionId, 0, true, () -> storage.delete(sessionFile.toPath()));
+    }
+
+    /**
+     * Estimates the size of a session record before it is encoded, for the persistence queue's memory limit.
+     *
+     * @param items The shared contents.
+     * @return The approximate record size, in bytes.
+     */
+    private static long estimateRecordSize(ItemStack[] items) {
+        long size = 256;
+        for (ItemStack item : items) {
+            if (item != null) {
+                size += 256;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the filesystem layer this store writes through.
+     *
+     * @return The storage.
+     */
+    EnderShareStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Returns the number of saves requested so far, including skipped ones.
+     *
+     * @return The number of saves.
+     */
+    long getSaves() {
+        return saves;
+    }
+
+    /**
+     * Returns the main-thread time spent preparing saves so far.
+     *
+     * @return The time in nanoseconds.
+     */
+    long getSaveNanos() {
+        return saveNanos;
+    }
+
+    /**
+     * Returns the number of saves skipped because the contents had not changed.
+     *
+     * @return The number of skipped saves.
+     */
+    long getElidedWrites() {
+        return elidedWrites;
+    }
+}
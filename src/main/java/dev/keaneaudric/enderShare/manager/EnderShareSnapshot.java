@@ -0,0 +1,372 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Single-file checkpoint of all sessions and pending restorations, laid out for memory mapping.
+ * <pre>
+ *   header (64 bytes)
+ *   session index     (80 bytes per entry: id, player1, player2, file mtime, file size, offset, length, crc)
+ *   restoration index (40 bytes per entry: player, offset, length, crc, reserved)
+ *   blobs             (item arrays encoded by EnderShareItemCodec)
+ * </pre>
+ * On startup the file is mapped and only the index is read; session contents stay in the mapping
+ * until a session is first used. Each entry records the modification time and size of its session
+ * file, so entries whose file changed after the checkpoint fall back to the file.
+ * Restorations are taken from the state last written to "pendingRestorations.yml", and the header
+ * records the size and CRC32 of that file, so they are only used while the file still holds exactly
+ * that state.
+ * The item index is written alongside, keyed by the checksum of each session's blob.
+ */
+final class EnderShareSnapshot {
+
+    static final String FILE_NAME = "snapshot.bin";
+
+    private static final int MAGIC = 0x4553534E; // "ESSN"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int SESSION_ENTRY_SIZE = 80;
+    private static final int RESTORATION_ENTRY_SIZE = 40;
+
+    /**
+     * A session captured for, or read from, a snapshot.
+     */
+    static class SessionEntry {
+        UUID sessionId;
+        UUID player1;
+        UUID player2;
+        long fileModified;
+        long fileSize;
+        ByteBuffer blob;
+        int checksum;
+
+        // Set only while writing.
+        EnderShareSession session;
+        int revision;
+        ItemStack[] items;
+    }
+
+    /**
+     * Pending restorations as written to the restorations file, with that file's size and CRC32.
+     * The item arrays are never modified once set as pending restorations, so they are shared, not copied.
+     */
+    static class Restorations {
+        static final Restorations NONE = new Restorations(Collections.emptyMap(), null);
+
+        final Map<UUID, ItemStack[]> items;
+        final long fileSize;
+        final int fileChecksum;
+
+        /**
+         * Describes a restorations file.
+         *
+         * @param items The restorations the file holds.
+         * @param data  The file's bytes, or null if there is no file.
+         */
+        Restorations(Map<UUID, ItemStack[]> items, byte[] data) {
+            this.items = items;
+            this.fileSize = data != null ? data.length : -1L;
+            this.fileChecksum = data != null ? crc(ByteBuffer.wrap(data)) : 0;
+        }
+    }
+
+    /**
+     * The state captured on the main thread, to be written by {@link #write(File, Capture)}.
+     */
+    static class Capture {
+        final List<SessionEntry> sessions = new ArrayList<>();
+        // Indexed slots of the sessions captured as blobs; materialized ones are described while writing.
+        final Map<String, EnderShareItemIndex.Slot[]> index = new HashMap<>();
+        Restorations restorations;
+    }
+
+    /**
+     * A mapped snapshot read at startup.
+     */
+    static class Loaded {
+        long restorationsSize;
+        int restorationsChecksum;
+        final Map<String, SessionEntry> sessions = new LinkedHashMap<>();
+        final Map<UUID, SessionEntry> restorations = new LinkedHashMap<>();
+
+        /**
+         * Returns whether the snapshot's restorations are those held by the restorations file.
+         *
+         * @param data The restorations file's bytes, or null if there is no file.
+         * @return true if the restorations can be taken from the snapshot.
+         */
+        boolean coversRestorations(byte[] data) {
+            if (data == null) {
+                return restorationsSize == -1L;
+            }
+            return data.length == restorationsSize && crc(ByteBuffer.wrap(data)) == restorationsChecksum;
+        }
+    }
+
+    private EnderShareSnapshot() {
+    }
+
+    /**
+     * Captures the sessions as last written to their files and the restorations last written to disk.
+     * Must run on the main thread. Materialized sessions contribute the immutable contents they last persisted,
+     * so the capture can be written asynchronously; sessions still backed by an earlier snapshot keep referring
+     * to their encoded contents. Sessions whose file does not hold their current contents are left out, since
+     * a later start must read them from the file, never from newer contents that were not saved yet.
+     *
+     * @param sessions     The sessions to capture.
+     * @param restorations The restorations held by the restorations file.
+     * @return The capture.
+     */
+    static Capture capture(Collection<EnderShareSession> sessions, Restorations restorations) {
+        Capture capture = new Capture();
+        capture.restorations = restorations;
+        for (EnderShareSession session : sessions) {
+            UUID sessionId;
+            try {
+                sessionId = UUID.fromString(session.getSessionId());
+            } catch (IllegalArgumentException e) {
+                continue; // Sessions with non-UUID identifiers are always loaded from their file.
+            }
+            // The revision is read first: if a save starts afterwards, the entry is written as stale.
+            int revision = session.getRevision();
+            ByteBuffer blob = session.getStoredContents();
+            ItemStack[] persisted = blob == null ? session.getPersistedContents() : null;
+            if (blob != null ? !session.isStoredPersisted() : persisted == null) {
+                continue;
+            }
+            SessionEntry entry = new SessionEntry();
+            entry.sessionId = sessionId;
+            entry.player1 = session.getPlayer1();
+            entry.player2 = session.getPlayer2();
+            entry.session = session;
+            entry.revision = revision;
+            entry.blob = blob;
+            if (entry.blob != null) {
+                entry.checksum = session.getStoredChecksum();
+                EnderShareItemIndex.Slot[] slots = EnderShareItemIndex.slotsOf(session.getSessionId());
+                if (slots != null) {
+                    capture.index.put(session.getSessionId(), slots);
+                }
+            } else {
+                // Persisted contents are immutable snapshots, so they can be written later without copying.
+                entry.items = persisted;
+            }
+            capture.sessions.add(entry);
+        }
+        return capture;
+    }
+
+    /**
+     * Writes a capture to the snapshot file through a temporary file and an atomic rename.
+     * May run on any thread.
+     *
+     * @param dataFolder The plugin data folder.
+     * @param capture    The capture to write.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    static void write(File dataFolder, Capture capture) throws IOException {
+        File chestDataFolder = new File(dataFolder, "chestdata");
+        Path target = new File(dataFolder, FILE_NAME).toPath();
+        Path temp = target.resolveSibling(FILE_NAME + ".tmp");
+        int sessionCount = capture.sessions.size();
+        int restorationCount = capture.restorations.items.size();
+        long blobStart = HEADER_SIZE + (long) sessionCount * SESSION_ENTRY_SIZE
+                + (long) restorationCount * RESTORATION_ENTRY_SIZE;
+
+        ByteBuffer index = ByteBuffer.allocate((int) (blobStart - HEADER_SIZE));
+        Map<String, EnderShareItemIndex.Slot[]> itemIndex = new HashMap<>(capture.index);
+        Map<String, Integer> checksums = new HashMap<>();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = blobStart;
+            for (SessionEntry entry : capture.sessions) {
+                // Stat the file before checking the revision: if no save started since the capture,
+                // the file cannot be newer than the captured contents.
+                long[] stat = stat(new File(chestDataFolder, entry.sessionId + ".yml").toPath());
+                ByteBuffer blob = entry.blob != null ? entry.blob.duplicate() : encode(entry.items);
+                int checksum = entry.blob != null ? entry.checksum : crc(blob);
+                checksums.put(entry.sessionId.toString(), checksum);
+                if (entry.items != null) {
+                    itemIndex.put(entry.sessionId.toString(), EnderShareItemIndex.describe(entry.items));
+                }
+                boolean current = entry.session.getRevision() == entry.revision;
+                int length = blob.remaining();
+                position += writeFully(channel, blob, position);
+
+                index.putLong(entry.sessionId.getMostSignificantBits()).putLong(entry.sessionId.getLeastSignificantBits());
+                index.putLong(entry.player1.getMostSignificantBits()).putLong(entry.player1.getLeastSignificantBits());
+                index.putLong(entry.player2.getMostSignificantBits()).putLong(entry.player2.getLeastSignificantBits());
+                index.putLong(current ? stat[0] : -1L).putLong(current ? stat[1] : -1L);
+                index.putLong(position - length).putInt(length).putInt(checksum);
+            }
+            for (Map.Entry<UUID, ItemStack[]> entry : capture.restorations.items.entrySet()) {
+                ByteBuffer blob = encode(entry.getValue());
+                int checksum = crc(blob);
+                int length = blob.remaining();
+                position += writeFully(channel, blob, position);
+
+                index.putLong(entry.getKey().getMostSignificantBits()).putLong(entry.getKey().getLeastSignificantBits());
+                index.putLong(position - length).putInt(length).putInt(checksum).putLong(0L);
+            }
+            index.flip();
+            int indexChecksum = crc(index);
+            writeFully(channel, index, HEADER_SIZE);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(0);
+            header.putLong(System.currentTimeMillis());
+            header.putLong(capture.restorations.fileSize).putInt(capture.restorations.fileChecksum);
+            header.putInt(sessionCount).putInt(restorationCount).putInt(indexChecksum);
+            header.position(0).limit(HEADER_SIZE);
+            writeFully(channel, header, 0);
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        EnderShareItemIndex.write(dataFolder, itemIndex, checksums);
+    }
+
+    /**
+     * Maps the snapshot file and reads its index.
+     *
+     * @param dataFolder The plugin data folder.
+     * @return The loaded snapshot, or null if there is none or it is unreadable.
+     */
+    static Loaded open(File dataFolder) {
+        Path path = new File(dataFolder, FILE_NAME).toPath();
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                return null;
+            }
+            Loaded loaded = new Loaded();
+            map.getInt(); // Flags, reserved.
+            map.getLong(); // Creation time, informational only.
+            loaded.restorationsSize = map.getLong();
+            loaded.restorationsChecksum = map.getInt();
+            int sessionCount = map.getInt();
+            int restorationCount = map.getInt();
+            int indexChecksum = map.getInt();
+            long indexLength = (long) sessionCount * SESSION_ENTRY_SIZE + (long) restorationCount * RESTORATION_ENTRY_SIZE;
+            if (sessionCount < 0 || restorationCount < 0 || HEADER_SIZE + indexLength > size) {
+                return null;
+            }
+            ByteBuffer index = map.slice(HEADER_SIZE, (int) indexLength);
+            if (crc(index) != indexChecksum) {
+                return null;
+            }
+            for (int i = 0; i < sessionCount; i++) {
+                SessionEntry entry = new SessionEntry();
+                entry.sessionId = new UUID(index.getLong(), index.getLong());
+                entry.player1 = new UUID(index.getLong(), index.getLong());
+                entry.player2 = new UUID(index.getLong(), index.getLong());
+                entry.fileModified = index.getLong();
+                entry.fileSize = index.getLong();
+                entry.blob = slice(map, index.getLong(), index.getInt(), size);
+                entry.checksum = index.getInt();
+                if (entry.blob != null) {
+                    loaded.sessions.put(entry.sessionId.toString(), entry);
+                }
+            }
+            for (int i = 0; i < restorationCount; i++) {
+                SessionEntry entry = new SessionEntry();
+                entry.player1 = new UUID(index.getLong(), index.getLong());
+                entry.blob = slice(map, index.getLong(), index.getInt(), size);
+                entry.checksum = index.getInt();
+                index.getLong();
+                if (entry.blob != null) {
+                    loaded.restorations.put(entry.player1, entry);
+                }
+            }
+            return loaded;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether a snapshot entry still describes the given session file.
+     *
+     * @param entry       The snapshot entry.
+     * @param sessionFile The session file.
+     * @return true if the file has not changed since the snapshot was written.
+     */
+    static boolean matches(SessionEntry entry, File sessionFile) {
+        long[] stat = stat(sessionFile.toPath());
+        return entry.fileModified >= 0 && stat[0] == entry.fileModified && stat[1] == entry.fileSize;
+    }
+
+    /**
+     * Decodes a restoration blob.
+     *
+     * @param entry The restoration entry.
+     * @return The restored items.
+     * @throws IOException If the blob fails its checksum or cannot be decoded.
+     */
+    static ItemStack[] decodeRestoration(SessionEntry entry) throws IOException {
+        byte[] bytes = new byte[entry.blob.remaining()];
+        entry.blob.duplicate().get(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if ((int) crc.getValue() != entry.checksum) {
+            throw new IOException("checksum mismatch");
+        }
+        return EnderShareItemCodec.decode(bytes, 0, bytes.length, 27);
+    }
+
+    private static ByteBuffer slice(ByteBuffer map, long offset, int length, long size) {
+        if (offset < HEADER_SIZE || length < 0 || offset + length > size) {
+            return null;
+        }
+        return map.slice((int) offset, length);
+    }
+
+    private static long[] stat(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new long[]{attributes.lastModifiedTime().toMillis(), attributes.size()};
+        } catch (IOException e) {
+            return new long[]{-1L, -1L};
+        }
+    }
+
+    private static ByteBuffer encode(ItemStack[] items) {
+        EnderShareItemCodec.Buffer buffer = EnderShareItemCodec.encode(items);
+        return ByteBuffer.wrap(buffer.data, 0, buffer.length);
+    }
+
+    private static int crc(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+}
@@ -0,0 +1,79 @@
+package dev.keaneaudric.enderShare.manager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The filesystem operations used to persist sessions and pending restorations.
+ * The manager writes through this layer so that another implementation, such as
+ * {@link EnderShareFaultyStorage}, can be put in front of the disk.
+ */
+interface EnderShareStorage {
+
+    /**
+     * Replaces a file with new contents, so readers see either the old or the new file, never a partial one.
+     * The new contents are on the storage device when this returns.
+     *
+     * @param target The file to replace.
+     * @param data   The new contents.
+     * @throws IOException If the file cannot be written; the previous contents are then left in place.
+     */
+    void write(Path target, byte[] data) throws IOException;
+
+    /**
+     * Deletes a file if it exists.
+     *
+     * @param target The file to delete.
+     * @throws IOException If the file exists but cannot be deleted.
+     */
+    void delete(Path target) throws IOException;
+
+    /**
+     * Returns the storage backed directly by the local filesystem.
+     *
+     * @return The filesystem storage.
+     */
+    static EnderShareStorage files() {
+        return FileStorage.INSTANCE;
+    }
+
+    /**
+     * Storage on the local filesystem. Files are replaced through a temporary sibling, which is forced to
+     * the device before an atomic rename.
+     */
+    final class FileStorage implements EnderShareStorage {
+        private static final FileStorage INSTANCE = new FileStorage();
+
+        private FileStorage() {
+        }
+
+        @Override
+        public void write(Path target, byte[] data) throws IOException {
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        @Override
+        public void delete(Path target) throws IOException {
+            Files.deleteIfExists(target);
+        }
+    }
+}
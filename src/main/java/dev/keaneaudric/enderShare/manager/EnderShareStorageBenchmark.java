@@ -0,0 +1,362 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Exercises the real persistence paths against a fault-injecting storage and reports latencies.
+ * A run has its own {@link EnderShareSessionStore} and {@link EnderSharePersistenceQueue} over a scratch folder,
+ * writing through {@link EnderShareFaultyStorage} via {@link EnderShareScratchStorage}, so its latencies, stalls and retries never delay live writes
+ * or lock editing for players, and none of its files can land in the live folder.
+ * Synthetic sessions, filled with the contents of live sessions, are saved on the main thread in small batches,
+ * every tenth is deleted, and a copy of the pending restorations is written through the run's queue.
+ * Once the queue is idle the scratch files are loaded back with the session loader and compared with what was saved.
+ * Each session is published once and then edited in one slot before its timed save, so the main-thread time
+ * covers what a save after a click costs there: publishing the changed slot and submitting the write.
+ * The report gives p50/p99 main-thread time per save and the latency from submission to a successful write,
+ * the bytes allocated to save, encode and decode a record, checks the main-thread time against a budget, and
+ * counts lost or corrupt records. Synthetic sessions are never registered, so live sessions are not touched.
+ */
+public class EnderShareStorageBenchmark {
+
+    // Main-thread time allowed to prepare one save, a small share of a 50 ms tick.
+    private static final long MAIN_THREAD_BUDGET_NANOS = 1_000_000L;
+
+    // Records saved per main-thread hand-off.
+    private static final int BATCH_SIZE = 10;
+
+    private static final String RESTORATIONS_FILE = "pendingRestorations.yml";
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    private EnderShareStorageBenchmark() {
+    }
+
+    /**
+     * Starts a benchmark run.
+     * Arguments, all optional: records, write latency (ms), fsync stall (ms), ENOSPC percent, partial write percent.
+     *
+     * @param sender The sender to report to.
+     * @param args   The benchmark arguments.
+     */
+    public static void run(CommandSender sender, String[] args) {
+        int records;
+        long latency;
+        long stall;
+        int noSpacePercent;
+        int partialPercent;
+        try {
+            records = Math.max(1, argument(args, 0, 200));
+            latency = Math.max(0, argument(args, 1, 5));
+            stall = Math.max(0, argument(args, 2, 200));
+            noSpacePercent = Math.min(90, Math.max(0, argument(args, 3, 2)));
+            partialPercent = Math.min(90, Math.max(0, argument(args, 4, 2)));
+        } catch (NumberFormatException e) {
+            sender.sendMessage(ChatColor.RED + "Invalid number: " + e.getMessage());
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            sender.sendMessage(ChatColor.RED + "An EnderShare storage benchmark is already running.");
+            return;
+        }
+        JavaPlugin plugin = EnderShareManager.getPlugin();
+        // Sample contents from live sessions so record sizes are realistic.
+        List<ItemStack[]> samples = new ArrayList<>();
+        for (EnderShareSession session : EnderShareManager.getAllSessions()) {
+            if (samples.size() >= 32) {
+                break;
+            }
+            samples.add(session.getContents());
+        }
+        if (samples.isEmpty()) {
+            ItemStack[] filler = new ItemStack[54];
+            for (int i = 0; i < filler.length; i += 2) {
+                filler[i] = new ItemStack(Material.STONE, 1 + i);
+            }
+            samples.add(filler);
+        }
+        EnderShareFaultyStorage faulty = new EnderShareFaultyStorage(EnderShareStorage.files(), latency, stall,
+                0.02, noSpacePercent / 100.0, partialPercent / 100.0);
+        sender.sendMessage(ChatColor.YELLOW + "Started EnderShare storage benchmark: " + records + " record(s), "
+                + latency + " ms latency, " + stall + " ms stalls, " + noSpacePercent + "% ENOSPC, "
+                + partialPercent + "% partial writes...");
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            File folder = new File(plugin.getDataFolder(), "benchmark");
+            try {
+                List<String> report = execute(plugin, folder, faulty, samples, records);
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    for (String line : report) {
+                        sender.sendMessage(line);
+                    }
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+                Bukkit.getScheduler().runTask(plugin, () ->
+                        sender.sendMessage(ChatColor.RED + "EnderShare storage benchmark failed: " + e.getMessage()));
+            } finally {
+                deleteRecursively(folder);
+                running.set(false);
+            }
+        });
+    }
+
+    private static List<String> execute(JavaPlugin plugin, File folder, EnderShareFaultyStorage faulty,
+                                         List<ItemStack[]> samples, int records) throws Exception {
+        deleteRecursively(folder);
+        File chestDataFolder = new File(folder, "chestdata");
+        chestDataFolder.mkdirs();
+        long timeout = Math.max(1, plugin.getConfig().getLong("persistence.shutdown_timeout_seconds", 30)) * 1000L;
+
+        EnderShareSession[] sessions = new EnderShareSession[records];
+        ItemStack[][] saved = new ItemStack[records][];
+        long[] submitted = new long[records];
+        long[] mainThread = new long[records];
+        long[] saveAllocations = new long[records];
+        Set<String> deleted = new HashSet<>();
+        Set<String> restorationKeys = new HashSet<>();
+        long restorationSubmitted;
+        int unfinished;
+
+        EnderShareScratchStorage storage = new EnderShareScratchStorage(faulty);
+        EnderSharePersistenceQueue queue = new EnderSharePersistenceQueue(plugin, "EnderShare-Benchmark");
+        EnderShareSessionStore store = new EnderShareSessionStore(folder, storage, queue, false);
+        try {
+            // Save on the main thread in small batches, timing each save.
+            for (int start = 0; start < records; start += BATCH_SIZE) {
+                int from = start;
+                int to = Math.min(records, start + BATCH_SIZE);
+                onMainThread(plugin, () -> {
+                    for (int i = from; i < to; i++) {
+                        Inventory inv = Bukkit.createInventory(null, 54, "Shared Ender Chest");
+                        inv.setContents(samples.get(i % samples.size()));
+                        sessions[i] = new EnderShareSession(UUID.randomUUID(), UUID.randomUUID(), inv);
+                        sessions[i].getContents();
+                        inv.setItem(i % 54, new ItemStack(Material.COBBLESTONE, 1 + i % 64));
+                        long allocated = allocatedBytes();
+                        long began = System.nanoTime();
+                        store.save(sessions[i], false);
+                        mainThread[i] = System.nanoTime() - began;
+                        saveAllocations[i] = allocatedBytes() - allocated;
+                        submitted[i] = began;
+                        saved[i] = sessions[i].getContents();
+                    }
+                    return null;
+                });
+            }
+
+            // Delete every tenth session and write a copy of the pending restorations.
+            Map<UUID, ItemStack[]> restorations = onMainThread(plugin, () -> {
+                for (int i = 0; i < records; i += 10) {
+                    store.delete(sessions[i].getSessionId());
+                    deleted.add(sessions[i].getSessionId());
+                }
+                return EnderShareManager.getPendingRestorations();
+            });
+            for (UUID playerId : restorations.keySet()) {
+                restorationKeys.add(playerId.toString());
+            }
+            restorationSubmitted = System.nanoTime();
+            File restorationsFile = new File(folder, RESTORATIONS_FILE);
+            queue.submit("restorations", 256L + restorations.size() * 2048L, true, () ->
+                    storage.write(restorationsFile.toPath(), EnderShareManager.restorationsRecordBytes(restorations)));
+            unfinished = queue.awaitIdle(timeout);
+        } finally {
+            // Writes left over after a timeout are dropped, so nothing is written once the folder is deleted.
+            storage.discarding = true;
+            queue.shutdown(timeout);
+        }
+
+        // Load everything back and compare with what was saved.
+        File[] files = chestDataFolder.listFiles((dir, name) -> name.endsWith(".yml"));
+        List<File> sessionFiles = files != null ? Arrays.asList(files) : new ArrayList<>();
+        EnderShareSessionLoader.LoadReport load = EnderShareSessionLoader.load(chestDataFolder, sessionFiles,
+                plugin.getConfig().getInt("loader_threads", 4));
+        Map<String, ItemStack[]> loaded = new HashMap<>();
+        for (EnderShareSessionLoader.LoadedRecord record : load.records) {
+            loaded.put(record.sessionId, record.contents);
+        }
+        int lost = 0;
+        int corrupt = load.quarantined.size();
+        List<Long> latencies = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        for (int i = 0; i < records; i++) {
+            String id = sessions[i].getSessionId();
+            File file = new File(chestDataFolder, id + ".yml");
+            if (deleted.contains(id)) {
+                corrupt += file.exists() ? 1 : 0;
+                continue;
+            }
+            ItemStack[] contents = loaded.get(id);
+            Long written = storage.written.get(id + ".yml");
+            if (contents == null || written == null) {
+                lost++;
+            } else if (!sameContents(contents, saved[i])) {
+                corrupt++;
+            } else {
+                latencies.add(written - submitted[i]);
+                sizes.add(file.length());
+            }
+        }
+        boolean restorationsWritten = storage.written.containsKey(RESTORATIONS_FILE);
+        if (restorationsWritten && !validRestorations(new File(folder, RESTORATIONS_FILE), restorationKeys)) {
+            corrupt++;
+        }
+
+        // Encode and decode each sample once more on this thread, measuring the bytes allocated per record.
+        long[] encodeAllocations = new long[samples.size()];
+        long[] decodeAllocations = new long[samples.size()];
+        for (int i = 0; i < samples.size(); i++) {
+            long allocated = allocatedBytes();
+            EnderShareManager.sessionRecordBytes(new UUID(0L, i).toString(), new UUID(0L, 1L), new UUID(0L, 2L),
+                    samples.get(i));
+            encodeAllocations[i] = allocatedBytes() - allocated;
+            String contents = EnderShareManager.serializeItemArray(samples.get(i));
+            allocated = allocatedBytes();
+            EnderShareManager.decodeItemArray(contents, EnderShareCompression.FORMAT_ENVELOPE, 54);
+            decodeAllocations[i] = allocatedBytes() - allocated;
+        }
+
+        long[] saves = sorted(latencies);
+        long[] recordSizes = sorted(sizes);
+        Arrays.sort(mainThread);
+        Arrays.sort(saveAllocations);
+        Arrays.sort(encodeAllocations);
+        Arrays.sort(decodeAllocations);
+        long retries = faulty.noSpaceFailures.get() + faulty.partialWrites.get();
+        boolean withinBudget = percentile(mainThread, 0.99) <= MAIN_THREAD_BUDGET_NANOS;
+        boolean intact = lost == 0 && corrupt == 0;
+        List<String> report = new ArrayList<>();
+        report.add(ChatColor.AQUA + "[EnderShare] Storage benchmark, " + records + " record(s):");
+        report.add(ChatColor.AQUA + " main thread per save (publish + submit): p50 " + micros(percentile(mainThread, 0.5)) + ", p99 "
+                + micros(percentile(mainThread, 0.99)) + ", max " + micros(mainThread[records - 1]) + " (budget "
+                + micros(MAIN_THREAD_BUDGET_NANOS) + ")");
+        if (saves.length > 0) {
+            report.add(ChatColor.AQUA + " save latency: p50 " + millis(percentile(saves, 0.5)) + ", p99 "
+                    + millis(percentile(saves, 0.99)) + ", max " + millis(saves[saves.length - 1])
+                    + (restorationsWritten
+                    ? "; restorations " + millis(storage.written.get(RESTORATIONS_FILE) - restorationSubmitted)
+                    : "; restorations write failed"));
+        }
+        if (allocatedBytes() >= 0) {
+            report.add(ChatColor.AQUA + " allocated per record: save p50 " + kib(percentile(saveAllocations, 0.5))
+                    + ", encode p50 " + kib(percentile(encodeAllocations, 0.5)) + ", decode p50 "
+                    + kib(percentile(decodeAllocations, 0.5))
+                    + (recordSizes.length > 0 ? "; record size p50 " + kib(percentile(recordSizes, 0.5)) : ""));
+        }
+        report.add(ChatColor.AQUA + " faults: " + faulty.stalls.get() + " stall(s), " + faulty.noSpaceFailures.get()
+                + " ENOSPC, " + faulty.partialWrites.get() + " partial write(s), " + retries + " retr"
+                + (retries == 1 ? "y" : "ies") + (unfinished > 0 ? ", " + unfinished + " write(s) unfinished" : ""));
+        report.add(ChatColor.AQUA + " load: " + load.records.size() + " record(s) in " + load.elapsedMillis + " ms; "
+                + lost + " lost, " + corrupt + " corrupt");
+        report.add((withinBudget && intact ? ChatColor.GREEN + "PASS" : ChatColor.RED + "FAIL")
+                + (withinBudget ? "" : ": main-thread time over budget")
+                + (intact ? "" : ": data lost or corrupted"));
+        return report;
+    }
+
+    // Compares loaded contents with the snapshot that was saved.
+    private static boolean sameContents(ItemStack[] loaded, ItemStack[] saved) {
+        for (int slot = 0; slot < saved.length; slot++) {
+            ItemStack item = slot < loaded.length ? loaded[slot] : null;
+            if (item == null ? saved[slot] != null : !item.equals(saved[slot])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Checks that a restorations file holds the expected players, each with an intact record.
+    private static boolean validRestorations(File file, Set<String> keys) throws IOException {
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.loadFromString(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } catch (InvalidConfigurationException e) {
+            return false;
+        }
+        if (!config.getKeys(false).equals(keys)) {
+            return false;
+        }
+        for (String key : keys) {
+            String contents = config.getString(key + ".contents");
+            if (contents == null || !EnderShareManager.checksum(contents).equals(config.getString(key + ".checksum"))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long[] sorted(List<Long> values) {
+        long[] array = new long[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    private static int argument(String[] args, int index, int fallback) {
+        return args.length > index ? Integer.parseInt(args[index]) : fallback;
+    }
+
+    static long percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    static String micros(long nanos) {
+        return nanos / 1000 + " µs";
+    }
+
+    static String kib(long bytes) {
+        return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024.0);
+    }
+
+    // Bytes allocated so far by the calling thread, or -1 if the JVM cannot tell.
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f ms", nanos / 1_000_000.0);
+    }
+
+    private static <T> T onMainThread(JavaPlugin plugin, Callable<T> task) throws Exception {
+        try {
+            return Bukkit.getScheduler().callSyncMethod(plugin, task).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,229 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Cursor over the session files in the "chestdata" folder.
+ * Files are listed lazily and read one at a time, so walking the store never holds more
+ * than one record in memory. Records are returned in their stored form without decoding items.
+ */
+class EnderShareStoreCursor implements Iterator<EnderShareStoreCursor.Record>, Closeable {
+
+    /**
+     * A session record as stored on disk.
+     */
+    static class Record {
+        final File file;
+        final String sessionId;
+        final UUID player1;
+        final UUID player2;
+        final int format;
+        final String checksum;
+        final String contents;
+        final ConfigurationSection legacyInventory;
+
+        Record(File file, String sessionId, UUID player1, UUID player2, int format, String checksum,
+               String contents, ConfigurationSection legacyInventory) {
+            this.file = file;
+            this.sessionId = sessionId;
+            this.player1 = player1;
+            this.player2 = player2;
+            this.format = format;
+            this.checksum = checksum;
+            this.contents = contents;
+            this.legacyInventory = legacyInventory;
+        }
+
+        /**
+         * Returns whether the record was written before checksums were introduced.
+         *
+         * @return true for legacy records.
+         */
+        boolean isLegacy() {
+            return contents == null;
+        }
+
+        /**
+         * Verifies the stored checksum. Legacy records have nothing to verify.
+         *
+         * @throws IOException If the checksum is missing or does not match.
+         */
+        void verify() throws IOException {
+            if (isLegacy()) {
+                return;
+            }
+            if (checksum == null) {
+                throw new IOException("missing checksum");
+            }
+            if (!checksum.equals(EnderShareManager.checksum(contents))) {
+                throw new IOException("checksum mismatch");
+            }
+        }
+
+        /**
+         * Decodes the record's items. Safe to call from worker threads.
+         *
+         * @return The 54 shared inventory slots.
+         * @throws IOException If the contents cannot be decoded.
+         */
+        ItemStack[] decode() throws IOException {
+            if (!isLegacy()) {
+                return EnderShareManager.decodeItemArray(contents, format, 54);
+            }
+            ItemStack[] items = new ItemStack[54];
+            if (legacyInventory == null) {
+                return items;
+            }
+            for (String key : legacyInventory.getKeys(false)) {
+                int slot;
+                try {
+                    slot = Integer.parseInt(key);
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid slot '" + key + "'");
+                }
+                if (slot < 0 || slot >= items.length) {
+                    throw new IOException("slot " + slot + " out of range");
+                }
+                items[slot] = legacyInventory.getItemStack(key);
+            }
+            return items;
+        }
+
+        /**
+         * Returns the contents in the current stored form, re-encoding legacy records.
+         *
+         * @return The stored contents.
+         * @throws IOException If a legacy record cannot be decoded.
+         */
+        String storedContents() throws IOException {
+            return isLegacy() ? EnderShareManager.serializeItemArray(decode()) : contents;
+        }
+
+        /**
+         * Returns the format of {@link #storedContents()}.
+         *
+         * @return The stored format.
+         */
+        int storedFormat() {
+            return isLegacy() ? EnderShareCompression.FORMAT_ENVELOPE : format;
+        }
+    }
+
+    private final DirectoryStream<Path> stream;
+    private final Iterator<Path> paths;
+
+    /**
+     * Opens a cursor over the given folder.
+     *
+     * @param chestDataFolder The folder containing session files.
+     * @throws IOException If the folder cannot be listed.
+     */
+    EnderShareStoreCursor(File chestDataFolder) throws IOException {
+        this.stream = Files.newDirectoryStream(chestDataFolder.toPath(), "*.yml");
+        this.paths = stream.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return paths.hasNext();
+    }
+
+    /**
+     * Returns the file the next call to {@link #next()} would read, without reading it.
+     *
+     * @return The next file.
+     */
+    File nextFile() {
+        if (!paths.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return paths.next().toFile();
+    }
+
+    /**
+     * Reads the next record. Unreadable records surface as an unchecked exception carrying the
+     * IOException; use {@link #nextFile()} with {@link #read(File)} to handle them individually.
+     *
+     * @return The next record.
+     */
+    @Override
+    public Record next() {
+        try {
+            return read(nextFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+
+    /**
+     * Reads a single session file without decoding its items.
+     *
+     * @param sessionFile The file to read.
+     * @return The stored record.
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    static Record read(File sessionFile) throws IOException {
+        return parse(sessionFile, Files.readString(sessionFile.toPath(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses the text of a session file without decoding its items.
+     *
+     * @param sessionFile The file the text belongs to, which names the session.
+     * @param raw         The file contents.
+     * @return The stored record.
+     * @throws IOException If the text is malformed.
+     */
+    static Record parse(File sessionFile, String raw) throws IOException {
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.loadFromString(raw);
+        } catch (Exception e) {
+            throw new IOException("unreadable YAML", e);
+        }
+        String name = sessionFile.getName();
+        String sessionId = name.endsWith(".yml") ? name.substring(0, name.length() - ".yml".length()) : name;
+        UUID p1 = parseUuid(config.getString("player1"), "player1");
+        UUID p2 = parseUuid(config.getString("player2"), "player2");
+        String contents = config.getString("contents");
+        ConfigurationSection inventory = config.getConfigurationSection("inventory");
+        // Records written before checksums keep their items in an "inventory" section, which is
+        // absent altogether for an empty chest.
+        if (contents == null && inventory == null && !config.contains("session_id")) {
+            throw new IOException("missing inventory section");
+        }
+        return new Record(sessionFile, sessionId, p1, p2,
+                config.getInt("format", EnderShareCompression.FORMAT_PLAIN),
+                config.getString("checksum"), contents, inventory);
+    }
+
+    private static UUID parseUuid(String value, String field) throws IOException {
+        if (value == null) {
+            throw new IOException("missing " + field);
+        }
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("invalid " + field + " '" + value + "'");
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in recorder of EnderShare activity for replay benchmarks.
+ * Session starts and ends, shared chest opens, closes, clicks and drags, and player joins and quits are
+ * written to a compact binary file in the "traces" folder by a background thread. Players and sessions are
+ * replaced by small numbers assigned in order of first appearance, so traces hold no UUIDs, names or items.
+ * Events are recorded on the main thread; if the writer falls behind, new events are dropped and counted.
+ *
+ * <p>File format: the magic "ESTR", a version int and the start time in milliseconds, followed by one
+ * record per event: type byte, then varints for the milliseconds since the previous event, the player,
+ * the session, the event value and the extra field.</p>
+ */
+public class EnderShareTrace {
+
+    static final int MAGIC = 0x45535452; // "ESTR"
+    static final int VERSION = 1;
+
+    static final byte JOIN = 1;
+    static final byte QUIT = 2;
+    // value: the other participant.
+    static final byte SESSION_START = 3;
+    static final byte SESSION_END = 4;
+    static final byte OPEN = 5;
+    static final byte CLOSE = 6;
+    // value: raw slot + 1, or 0 outside the window; extra: InventoryAction ordinal.
+    static final byte CLICK = 7;
+    // value: mask of shared chest slots; extra: number of slots dragged over.
+    static final byte DRAG = 8;
+
+    static final String[] TYPE_NAMES = {"?", "join", "quit", "start", "end", "open", "close", "click", "drag"};
+
+    // Events waiting for the writer thread.
+    private static final int QUEUE_CAPACITY = 8192;
+
+    private static BlockingQueue<Event> queue;
+    private static Thread writer;
+    private static volatile boolean recording;
+    private static File traceFile;
+    private static long maxBytes = 64L * 1024 * 1024;
+
+    // Anonymous numbers, assigned on the main thread.
+    private static final Map<UUID, Integer> players = new HashMap<>();
+    private static final Map<String, Integer> sessions = new HashMap<>();
+
+    private static long recorded;
+    private static volatile long dropped;
+    private static volatile long writtenBytes;
+
+    private EnderShareTrace() {
+    }
+
+    /**
+     * One recorded event.
+     */
+    static class Event {
+        byte type;
+        long time;
+        int player;
+        int session;
+        long value;
+        int extra;
+    }
+
+    /**
+     * Starts recording to a new trace file if tracing is enabled.
+     *
+     * @param plugin The plugin instance.
+     */
+    public static void start(JavaPlugin plugin) {
+        if (!plugin.getConfig().getBoolean("trace.enabled", false)) {
+            return;
+        }
+        maxBytes = Math.max(1, plugin.getConfig().getLong("trace.max_megabytes", 64)) * 1024L * 1024L;
+        File folder = new File(plugin.getDataFolder(), "traces");
+        folder.mkdirs();
+        traceFile = new File(folder, "trace-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".bin");
+        DataOutputStream out;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(traceFile), 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not start EnderShare trace " + traceFile.getName() + ": " + e.getMessage());
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        recording = true;
+        writer = new Thread(() -> drain(plugin, out), "EnderShare-Trace");
+        writer.setDaemon(true);
+        writer.start();
+        plugin.getLogger().info("Recording EnderShare trace to " + traceFile.getName());
+    }
+
+    /**
+     * Stops recording and waits briefly for queued events to be written.
+     */
+    public static void stop() {
+        if (!recording) {
+            return;
+        }
+        recording = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns whether events are being recorded.
+     *
+     * @return true while a trace is being written.
+     */
+    public static boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * Records a player event. Must be called on the main thread.
+     *
+     * @param type     The event type.
+     * @param playerId The player's UUID.
+     * @param session  The session involved, or null.
+     * @param value    The event value.
+     * @param extra    The extra field.
+     */
+    static void record(byte type, UUID playerId, EnderShareSession session, long value, int extra) {
+        if (!recording) {
+            return;
+        }
+        Event event = new Event();
+        event.type = type;
+        event.time = System.currentTimeMillis();
+        event.player = playerId == null ? 0 : players.computeIfAbsent(playerId, id -> players.size() + 1);
+        event.session = session == null ? 0 : sessions.computeIfAbsent(session.getSessionId(), id -> sessions.size() + 1);
+        event.value = value;
+        event.extra = extra;
+        recorded++;
+        if (!queue.offer(event)) {
+            dropped++;
+        }
+    }
+
+    /**
+     * Records that a session started.
+     *
+     * @param session The new session.
+     */
+    static void recordSessionStart(EnderShareSession session) {
+        if (recording) {
+            record(SESSION_START, session.getPlayer1(), session,
+                    players.computeIfAbsent(session.getPlayer2(), id -> players.size() + 1), 0);
+        }
+    }
+
+    /**
+     * Records that a session ended.
+     *
+     * @param session The ended session.
+     */
+    static void recordSessionEnd(EnderShareSession session) {
+        record(SESSION_END, session.getPlayer1(), session, 0, 0);
+    }
+
+    /**
+     * Records that a player joined or quit.
+     *
+     * @param playerId The player's UUID.
+     * @param joined   true for a join, false for a quit.
+     */
+    public static void recordPresence(UUID playerId, boolean joined) {
+        record(joined ? JOIN : QUIT, playerId, null, 0, 0);
+    }
+
+    /**
+     * Records that a player opened or closed a shared chest.
+     *
+     * @param playerId The player's UUID.
+     * @param session  The session whose chest was opened or closed.
+     * @param opened   true for an open, false for a close.
+     */
+    public static void recordView(UUID playerId, EnderShareSession session, boolean opened) {
+        record(opened ? OPEN : CLOSE, playerId, session, 0, 0);
+    }
+
+    /**
+     * Records a click in a shared chest view.
+     *
+     * @param playerId The player's UUID.
+     * @param session  The session being viewed.
+     * @param rawSlot  The raw slot clicked, or a negative value outside the window.
+     * @param action   The InventoryAction ordinal.
+     */
+    public static void recordClick(UUID playerId, EnderShareSession session, int rawSlot, int action) {
+        record(CLICK, playerId, session, rawSlot < 0 ? 0 : rawSlot + 1, action);
+    }
+
+    /**
+     * Records a drag in a shared chest view.
+     *
+     * @param playerId The player's UUID.
+     * @param session  The session being viewed.
+     * @param mask     The shared chest slots dragged over.
+     * @param slots    The number of slots dragged over in either inventory.
+     */
+    public static void recordDrag(UUID playerId, EnderShareSession session, long mask, int slots) {
+        record(DRAG, playerId, session, mask, slots);
+    }
+
+    private static void drain(JavaPlugin plugin, DataOutputStream out) {
+        long previous = 0;
+        boolean full = false;
+        try (out) {
+            while (recording || !queue.isEmpty()) {
+                Event event = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (event == null || full) {
+                    continue;
+                }
+                if (previous == 0) {
+                    previous = event.time;
+                }
+                int before = out.size();
+                out.writeByte(event.type);
+                writeVarLong(out, Math.max(0, event.time - previous));
+                writeVarLong(out, event.player);
+                writeVarLong(out, event.session);
+                writeVarLong(out, event.value);
+                writeVarLong(out, event.extra);
+                previous = event.time;
+                writtenBytes += out.size() - before;
+                if (writtenBytes >= maxBytes) {
+                    full = true;
+                    recording = false;
+                    plugin.getLogger().warning("EnderShare trace " + traceFile.getName()
+                            + " reached its size limit; recording stopped.");
+                }
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("EnderShare trace writer failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        recording = false;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads every event of a trace file.
+     *
+     * @param file The trace file.
+     * @return The events, with absolute times in milliseconds since the start of the trace.
+     * @throws IOException If the file is not a readable trace.
+     */
+    static List<Event> read(File file) throws IOException {
+        List<Event> events = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not an EnderShare trace");
+            }
+            in.readLong();
+            long time = 0;
+            int type;
+            while ((type = in.read()) != -1) {
+                if (type < JOIN || type > DRAG) {
+                    throw new IOException("unknown event type " + type + " after " + events.size() + " event(s)");
+                }
+                Event event = new Event();
+                event.type = (byte) type;
+                time += readVarLong(in);
+                event.time = time;
+                event.player = (int) readVarLong(in);
+                event.session = (int) readVarLong(in);
+                event.value = readVarLong(in);
+                event.extra = (int) readVarLong(in);
+                events.add(event);
+            }
+        } catch (EOFException e) {
+            // A trace cut short by a crash keeps every complete event before the cut.
+        }
+        return events;
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /**
+     * Describes the recorder for admin status output.
+     *
+     * @return A one-line summary.
+     */
+    public static String describe() {
+        if (traceFile == null) {
+            return "trace off";
+        }
+        return "trace " + traceFile.getName() + (recording ? "" : " (stopped)") + ": " + recorded + " event(s), "
+                + dropped + " dropped, " + writtenBytes / 1024 + " KiB";
+    }
+}
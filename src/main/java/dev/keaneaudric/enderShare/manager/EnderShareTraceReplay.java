@@ -0,0 +1,333 @@
+package dev.keaneaudric.enderShare.manager;
+
+import dev.keaneaudric.enderShare.listeners.EnderShareInventoryListener;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.command.CommandSender;
+import org.bukkit.event.inventory.InventoryAction;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Replays a recorded trace against scratch sessions at accelerated speed and reports latencies.
+ * A replay runs against its own {@link EnderShareSessionStore}, {@link EnderSharePersistenceQueue} and storage
+ * over the "replay" folder, so it never touches live sessions, files, the item index or the live queue.
+ * Each tick, the events due by then in trace time are applied on the main thread the way the manager and the
+ * listeners handle them: sessions are registered and saved when they start, and unregistered and deleted when
+ * they end; clicks and drags change the recorded slots and go through the inventory listener's debounce, and
+ * closes and quits through its immediate save. The listener is driven directly, with the replay's store.
+ * Slot changes are pseudo-random but seeded, so replays of the same trace are comparable.
+ */
+public class EnderShareTraceReplay {
+
+    // Debounce delay of the inventory listener, in ticks of trace time.
+    private static final long DEBOUNCE_TICKS = 20L;
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    private final JavaPlugin plugin;
+    private final CommandSender sender;
+    private final List<EnderShareTrace.Event> events;
+    private final int speed;
+    private final File folder;
+    private final EnderShareScratchStorage storage = new EnderShareScratchStorage(EnderShareStorage.files());
+    private final EnderSharePersistenceQueue queue;
+    private final EnderShareSessionStore store;
+    // Not registered for events; driven directly with the replayed clicks, drags and closes.
+    private final EnderShareInventoryListener listener;
+    private final Random random = new Random(42L);
+
+    // Replay state, only touched on the main thread.
+    private final Map<Integer, EnderShareSession> sessions = new HashMap<>();
+    private final Map<Integer, EnderShareSession> viewing = new HashMap<>();
+    private final long[] counts = new long[EnderShareTrace.TYPE_NAMES.length];
+    private final List<Long> tickNanos = new ArrayList<>();
+    private long refused;
+    private int index;
+    private long started;
+    private BukkitTask timer;
+
+    private EnderShareTraceReplay(JavaPlugin plugin, CommandSender sender, List<EnderShareTrace.Event> events,
+                                  int speed) {
+        this.plugin = plugin;
+        this.sender = sender;
+        this.events = events;
+        this.speed = speed;
+        this.folder = new File(plugin.getDataFolder(), "replay");
+        this.queue = new EnderSharePersistenceQueue(plugin, "EnderShare-Replay");
+        this.store = new EnderShareSessionStore(folder, storage, queue, false);
+        this.listener = new EnderShareInventoryListener(DEBOUNCE_TICKS / speed, store);
+    }
+
+    /**
+     * Starts replaying a trace, or lists the recorded traces when no trace is named.
+     * Arguments: trace file name, then the optional speed-up factor (default 20).
+     *
+     * @param sender The sender to report to.
+     * @param args   The replay arguments.
+     */
+    public static void run(CommandSender sender, String[] args) {
+        JavaPlugin plugin = EnderShareManager.getPlugin();
+        File folder = new File(plugin.getDataFolder(), "traces");
+        if (args.length == 0) {
+            String[] names = folder.list((dir, name) -> name.endsWith(".bin"));
+            if (names == null || names.length == 0) {
+                sender.sendMessage(ChatColor.YELLOW + "No EnderShare traces recorded. Enable trace.enabled in the config.");
+                return;
+            }
+            Arrays.sort(names);
+            sender.sendMessage(ChatColor.AQUA + "EnderShare traces: " + String.join(", ", names));
+            return;
+        }
+        File file = new File(folder, args[0]);
+        if (!file.getParentFile().equals(folder) || !file.isFile()) {
+            sender.sendMessage(ChatColor.RED + "Trace not found: " + args[0]);
+            return;
+        }
+        int speed;
+        try {
+            speed = args.length > 1 ? Math.min(1000, Math.max(1, Integer.parseInt(args[1]))) : 20;
+        } catch (NumberFormatException e) {
+            sender.sendMessage(ChatColor.RED + "Invalid number: " + e.getMessage());
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            sender.sendMessage(ChatColor.RED + "An EnderShare trace replay is already running.");
+            return;
+        }
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            List<EnderShareTrace.Event> events;
+            try {
+                events = EnderShareTrace.read(file);
+            } catch (IOException e) {
+                running.set(false);
+                Bukkit.getScheduler().runTask(plugin, () ->
+                        sender.sendMessage(ChatColor.RED + "Could not read trace " + file.getName() + ": " + e.getMessage()));
+                return;
+            }
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                sender.sendMessage(ChatColor.YELLOW + "Replaying " + events.size() + " event(s) from " + file.getName()
+                        + " at " + speed + "x...");
+                new EnderShareTraceReplay(plugin, sender, events, speed).begin();
+            });
+        });
+    }
+
+    private void begin() {
+        deleteRecursively(folder);
+        new File(folder, "chestdata").mkdirs();
+        started = System.nanoTime();
+        timer = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+    }
+
+    /**
+     * Applies every event that is due by the current trace time.
+     */
+    private void tick() {
+        long traceNow = (System.nanoTime() - started) / 1_000_000L * speed;
+        long began = System.nanoTime();
+        while (index < events.size() && events.get(index).time <= traceNow) {
+            apply(events.get(index++));
+        }
+        tickNanos.add(System.nanoTime() - began);
+        if (index == events.size() && !listener.hasScheduledUpdates()) {
+            finish();
+        }
+    }
+
+    private void apply(EnderShareTrace.Event event) {
+        counts[event.type]++;
+        EnderShareSession session;
+        switch (event.type) {
+            case EnderShareTrace.SESSION_START:
+                sessionFor(event.session);
+                break;
+            case EnderShareTrace.SESSION_END:
+                EnderShareSession ended = sessions.remove(event.session);
+                if (ended != null) {
+                    // Ending a session closes its viewers first, which saves it.
+                    if (viewing.values().removeIf(viewed -> viewed == ended)) {
+                        listener.flushUpdate(ended);
+                    }
+                    end(ended);
+                }
+                break;
+            case EnderShareTrace.OPEN:
+                viewing.put(event.player, sessionFor(event.session));
+                break;
+            case EnderShareTrace.CLOSE:
+            case EnderShareTrace.QUIT:
+                session = viewing.remove(event.player);
+                if (session != null) {
+                    listener.flushUpdate(session);
+                }
+                break;
+            case EnderShareTrace.CLICK:
+                session = viewing.get(event.player);
+                if (session != null && editable()) {
+                    InventoryAction[] actions = InventoryAction.values();
+                    InventoryAction action = event.extra < actions.length ? actions[event.extra] : InventoryAction.UNKNOWN;
+                    if (action == InventoryAction.MOVE_TO_OTHER_INVENTORY || action == InventoryAction.COLLECT_TO_CURSOR) {
+                        for (int i = 0; i < 4; i++) {
+                            change(session, random.nextInt(54));
+                        }
+                    } else if (event.value > 0 && event.value <= 54) {
+                        change(session, (int) event.value - 1);
+                    }
+                    listener.scheduleDebouncedUpdate(session);
+                }
+                break;
+            case EnderShareTrace.DRAG:
+                session = viewing.get(event.player);
+                if (session != null && editable()) {
+                    for (int slot = 0; slot < 54; slot++) {
+                        if ((event.value & 1L << slot) != 0) {
+                            change(session, slot);
+                        }
+                    }
+                    listener.scheduleDebouncedUpdate(session);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns whether an edit may go ahead; the listener cancels clicks and drags while editing is locked.
+     */
+    private boolean editable() {
+        if (store.isEditingLocked()) {
+            refused++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the replay session for a trace session, creating, registering and saving it the first time it is
+     * seen, as {@link EnderShareManager#addSession(EnderShareSession)} does. Sessions that started before
+     * recording began are created when first used. Participants get UUIDs derived from the session number,
+     * so the store never maps one participant to two sessions.
+     */
+    private EnderShareSession sessionFor(int number) {
+        EnderShareSession session = sessions.get(number);
+        if (session == null) {
+            session = new EnderShareSession(new UUID(0L, 2L * number), new UUID(0L, 2L * number + 1),
+                    Bukkit.createInventory(null, 54, "Shared Ender Chest"), "replay-" + number);
+            sessions.put(number, session);
+            store.register(session);
+            store.save(session, false);
+        }
+        return session;
+    }
+
+    /**
+     * Unregisters a replay session and deletes its file, as {@link EnderShareManager#removeSession(UUID)} does.
+     */
+    private void end(EnderShareSession session) {
+        store.unregister(session);
+        store.delete(session.getSessionId());
+    }
+
+    private void change(EnderShareSession session, int slot) {
+        ItemStack current = session.getSharedInventory().getItem(slot);
+        session.getSharedInventory().setItem(slot, current != null && random.nextBoolean()
+                ? null : new ItemStack(Material.STONE, 1 + random.nextInt(64)));
+    }
+
+    private void finish() {
+        timer.cancel();
+        long wallNanos = System.nanoTime() - started;
+        long traceMillis = events.isEmpty() ? 0 : events.get(events.size() - 1).time;
+        // Sessions still open at the end of the trace end here.
+        for (EnderShareSession session : sessions.values()) {
+            end(session);
+        }
+        sessions.clear();
+        viewing.clear();
+        long timeout = Math.max(1, plugin.getConfig().getLong("persistence.shutdown_timeout_seconds", 30)) * 1000L;
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            int unfinished = queue.awaitIdle(timeout);
+            // Writes left over after a timeout are dropped, so nothing is written once the folder is deleted.
+            storage.discarding = true;
+            queue.shutdown(timeout);
+            List<String> report = report(wallNanos, traceMillis, unfinished);
+            deleteRecursively(folder);
+            running.set(false);
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                for (String line : report) {
+                    sender.sendMessage(line);
+                }
+            });
+        });
+    }
+
+    private List<String> report(long wallNanos, long traceMillis, int unfinished) {
+        long saves = store.getSaves();
+        StringBuilder mix = new StringBuilder();
+        for (int type = 1; type < counts.length; type++) {
+            if (counts[type] > 0) {
+                mix.append(mix.length() == 0 ? "" : ", ").append(counts[type]).append(' ')
+                        .append(EnderShareTrace.TYPE_NAMES[type]);
+            }
+        }
+        long[] ticks = sorted(tickNanos);
+        long[] writes;
+        synchronized (storage.writeNanos) {
+            writes = sorted(storage.writeNanos);
+        }
+        List<String> report = new ArrayList<>();
+        report.add(ChatColor.AQUA + "[EnderShare] Trace replay, " + events.size() + " event(s): "
+                + (mix.length() == 0 ? "none" : mix));
+        report.add(ChatColor.AQUA + " " + EnderShareStorageBenchmark.millis(traceMillis * 1_000_000L) + " of trace in "
+                + EnderShareStorageBenchmark.millis(wallNanos) + " (" + speed + "x requested)");
+        report.add(ChatColor.AQUA + " main thread per tick: " + summary(ticks, true));
+        report.add(ChatColor.AQUA + " saves: " + saves + ", mean "
+                + EnderShareStorageBenchmark.micros(saves == 0 ? 0 : store.getSaveNanos() / saves)
+                + " on the main thread; " + store.getElidedWrites() + " unchanged and skipped, " + refused + " edit(s) refused while locked");
+        report.add(ChatColor.AQUA + " background write: " + summary(writes, false) + "; " + writes.length
+                + " written" + (unfinished > 0 ? ", " + unfinished + " write(s) unfinished" : ""));
+        return report;
+    }
+
+    private static String summary(long[] sorted, boolean micros) {
+        if (sorted.length == 0) {
+            return "n/a";
+        }
+        long p50 = EnderShareStorageBenchmark.percentile(sorted, 0.5);
+        long p99 = EnderShareStorageBenchmark.percentile(sorted, 0.99);
+        long max = sorted[sorted.length - 1];
+        return micros
+                ? "p50 " + EnderShareStorageBenchmark.micros(p50) + ", p99 " + EnderShareStorageBenchmark.micros(p99)
+                + ", max " + EnderShareStorageBenchmark.micros(max)
+                : "p50 " + EnderShareStorageBenchmark.millis(p50) + ", p99 " + EnderShareStorageBenchmark.millis(p99)
+                + ", max " + EnderShareStorageBenchmark.millis(max);
+    }
+
+    private static long[] sorted(List<Long> values) {
+        long[] array = new long[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,96 @@
+package dev.keaneaudric.enderShare.manager;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.util.*;
+
+/**
+ * Registry of the players who currently have a shared Ender Chest open, keyed by player UUID.
+ * Updated as shared inventories are opened and closed, so inventory listeners can ignore
+ * unrelated events with a single lookup, and a session's live viewers can be closed together.
+ * Only accessed from the main thread.
+ */
+public class EnderShareViewers {
+
+    // The session whose shared inventory each viewing player has open.
+    private static final Map<UUID, EnderShareSession> viewing = new HashMap<>();
+
+    private EnderShareViewers() {
+    }
+
+    /**
+     * Records that a player opened a session's shared inventory.
+     *
+     * @param playerId The viewing player's UUID.
+     * @param session  The session being viewed.
+     */
+    public static void open(UUID playerId, EnderShareSession session) {
+        viewing.put(playerId, session);
+    }
+
+    /**
+     * Records that a player closed whatever shared inventory they had open.
+     *
+     * @param playerId The player's UUID.
+     * @return The session the player was viewing, or null if they were not viewing one.
+     */
+    public static EnderShareSession close(UUID playerId) {
+        return viewing.remove(playerId);
+    }
+
+    /**
+     * Returns the session whose shared inventory a player has open.
+     *
+     * @param playerId The player's UUID.
+     * @return The session being viewed, or null.
+     */
+    public static EnderShareSession getViewing(UUID playerId) {
+        return viewing.get(playerId);
+    }
+
+    /**
+     * Closes the shared inventory for every player currently viewing the session.
+     *
+     * @param session The session whose viewers should be closed.
+     * @return The number of views closed.
+     */
+    public static int closeViewers(EnderShareSession session) {
+        List<UUID> viewers = new ArrayList<>();
+        for (Map.Entry<UUID, EnderShareSession> entry : viewing.entrySet()) {
+            if (entry.getValue() == session) {
+                viewers.add(entry.getKey());
+            }
+        }
+        for (UUID viewer : viewers) {
+            Player player = Bukkit.getPlayer(viewer);
+            // Closing fires InventoryCloseEvent, which saves the session and unregisters the viewer.
+            if (player != null) {
+                player.closeInventory();
+            }
+            viewing.remove(viewer);
+        }
+        return viewers.size();
+    }
+
+    /**
+     * Returns the sessions that currently have at least one viewer.
+     *
+     * @return The viewed sessions, compared by identity.
+     */
+    public static Set<EnderShareSession> getViewedSessions() {
+        Set<EnderShareSession> viewed = Collections.newSetFromMap(new IdentityHashMap<>());
+        viewed.addAll(viewing.values());
+        return viewed;
+    }
+
+    /**
+     * Returns whether anyone has the session's shared inventory open.
+     *
+     * @param session The session.
+     * @return true if the session has at least one viewer.
+     */
+    public static boolean hasViewers(EnderShareSession session) {
+        return viewing.containsValue(session);
+    }
+}
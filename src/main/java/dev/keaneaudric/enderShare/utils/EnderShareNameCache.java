@@ -0,0 +1,123 @@
+package dev.keaneaudric.enderShare.utils;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Bounded, least-recently-used cache of player names keyed by UUID.
+ * Populated as players join and quit; names that are not cached are looked up asynchronously,
+ * so resolving a name never performs profile lookups or player data reads on the main thread.
+ */
+public class EnderShareNameCache {
+
+    private static JavaPlugin plugin;
+    private static int capacity = 1000;
+
+    // Access-ordered so the least recently used name is evicted first.
+    private static final Map<UUID, String> names = new LinkedHashMap<UUID, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, String> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    // Callbacks waiting for an asynchronous lookup, so concurrent requests share one lookup.
+    private static final Map<UUID, List<Consumer<String>>> pending = new HashMap<>();
+
+    private EnderShareNameCache() {
+    }
+
+    /**
+     * Initializes the cache and seeds it with the players currently online.
+     *
+     * @param p The plugin instance.
+     */
+    public static void initialize(JavaPlugin p) {
+        plugin = p;
+        capacity = Math.max(16, plugin.getConfig().getInt("name_cache_size", 1000));
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            put(player.getUniqueId(), player.getName());
+        }
+    }
+
+    /**
+     * Records a player's current name.
+     *
+     * @param playerId The player's UUID.
+     * @param name     The player's name.
+     */
+    public static void put(UUID playerId, String name) {
+        if (name == null) {
+            return;
+        }
+        synchronized (names) {
+            names.put(playerId, name);
+        }
+    }
+
+    /**
+     * Returns a cached name without performing any lookup.
+     *
+     * @param playerId The player's UUID.
+     * @return The cached name, or null if it is not cached.
+     */
+    public static String getCached(UUID playerId) {
+        synchronized (names) {
+            return names.get(playerId);
+        }
+    }
+
+    /**
+     * Resolves a player's name and passes it to the callback on the main thread.
+     * Cached and online players are answered immediately; otherwise the name is looked up
+     * asynchronously and the callback runs once it is available.
+     *
+     * @param playerId The player's UUID.
+     * @param callback Receives the name, or the UUID as text if the player has no known name.
+     */
+    public static void resolve(UUID playerId, Consumer<String> callback) {
+        String cached = getCached(playerId);
+        if (cached != null) {
+            callback.accept(cached);
+            return;
+        }
+        Player online = Bukkit.getPlayer(playerId);
+        if (online != null) {
+            put(playerId, online.getName());
+            callback.accept(online.getName());
+            return;
+        }
+        synchronized (pending) {
+            List<Consumer<String>> waiting = pending.get(playerId);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            pending.put(playerId, waiting);
+        }
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(playerId);
+            String name = offlinePlayer.getName();
+            put(playerId, name);
+            String resolved = name != null ? name : playerId.toString();
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                List<Consumer<String>> waiting;
+                synchronized (pending) {
+                    waiting = pending.remove(playerId);
+                }
+                if (waiting != null) {
+                    for (Consumer<String> waiter : waiting) {
+                        waiter.accept(resolved);
+                    }
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,74 @@
+package dev.keaneaudric.enderShare.utils;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sorted index of online player names, used to answer prefix queries for tab completion.
+ * Updated as players join and quit, and safe to query from asynchronous threads.
+ */
+public class EnderSharePlayerIndex {
+
+    // Lower-cased name to display name, sorted so a prefix maps to one contiguous range.
+    private static final ConcurrentSkipListMap<String, String> names = new ConcurrentSkipListMap<>();
+
+    private EnderSharePlayerIndex() {
+    }
+
+    /**
+     * Rebuilds the index from the players currently online.
+     */
+    public static void initialize() {
+        names.clear();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            add(player.getName());
+        }
+    }
+
+    /**
+     * Adds an online player's name to the index.
+     *
+     * @param name The player's name.
+     */
+    public static void add(String name) {
+        names.put(name.toLowerCase(Locale.ROOT), name);
+    }
+
+    /**
+     * Removes a player's name from the index.
+     *
+     * @param name The player's name.
+     */
+    public static void remove(String name) {
+        names.remove(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns online player names starting with the given prefix, ignoring case.
+     * Only the matching range of the index is visited.
+     *
+     * @param prefix  The typed prefix.
+     * @param exclude A name to leave out (typically the sender's own), or null.
+     * @param limit   The maximum number of names to return.
+     * @return The matching names in alphabetical order.
+     */
+    public static List<String> complete(String prefix, String exclude, int limit) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        List<String> matches = new ArrayList<>();
+        for (Map.Entry<String, String> entry : names.tailMap(key, true).entrySet()) {
+            if (matches.size() >= limit || !entry.getKey().startsWith(key)) {
+                break;
+            }
+            if (!entry.getValue().equalsIgnoreCase(exclude)) {
+                matches.add(entry.getValue());
+            }
+        }
+        return matches;
+    }
+}
@@ -1,18 +1,30 @@
 package dev.keaneaudric.enderShare.utils;
 
+import dev.keaneaudric.enderShare.manager.EnderShareManager;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
+import org.bukkit.entity.Player;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
 
 /**
  * Provides tab completion for the /endershare command.
- * Suggests subcommands based on the current argument count.
+ * Suggests subcommands, online players for "invite" and pending inviters for "accept".
+ * The same logic backs the asynchronous completion listener, so it only reads thread-safe state.
  */
 public class EnderShareTabCompleter implements TabCompleter {
 
+    // Maximum number of player names suggested at once.
+    private static final int MAX_SUGGESTIONS = 20;
+
+    private static final List<String> SUBCOMMANDS = Arrays.asList("invite", "accept", "unshare", "status", "find");
+    private static final List<String> ADMIN_SUBCOMMANDS = Arrays.asList("export", "import", "compact", "gc", "backup", "restore", "benchmark", "replay", "find", "status");
+
     /**
      * Returns a list of possible completions for the command.
      *
@@ -20,18 +32,51 @@ public class EnderShareTabCompleter implements TabCompleter {
      * @param command The command being executed.
      * @param alias   The alias used to call the command.
      * @param args    The arguments provided so far.
-     * @return List of subcommand suggestions.
+     * @return List of suggestions.
      */
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        return complete(sender, args);
+    }
+
+    /**
+     * Computes completions for the given arguments. Safe to call off the main thread.
+     *
+     * @param sender The command sender.
+     * @param args   The arguments provided so far; the last one is the token being completed.
+     * @return List of suggestions filtered by the typed prefix.
+     */
+    public static List<String> complete(CommandSender sender, String[] args) {
         List<String> completions = new ArrayList<>();
+        boolean admin = sender.hasPermission("endershare.admin");
         if (args.length == 1) {
             // Provide subcommands when the first argument is being entered.
-            completions.add("invite");
-            completions.add("accept");
-            completions.add("unshare");
-            completions.add("status");
+            addMatching(completions, SUBCOMMANDS, args[0]);
+            if (admin) {
+                addMatching(completions, List.of("admin"), args[0]);
+            }
+        } else if (args.length == 2) {
+            String subCommand = args[0].toLowerCase(Locale.ROOT);
+            if (subCommand.equals("invite")) {
+                completions.addAll(EnderSharePlayerIndex.complete(args[1], sender.getName(), MAX_SUGGESTIONS));
+            } else if (subCommand.equals("accept") && sender instanceof Player) {
+                UUID inviter = EnderShareManager.peekPendingInviter(((Player) sender).getUniqueId());
+                String name = inviter != null ? EnderShareNameCache.getCached(inviter) : null;
+                if (name != null) {
+                    addMatching(completions, List.of(name), args[1]);
+                }
+            } else if (subCommand.equals("admin") && admin) {
+                addMatching(completions, ADMIN_SUBCOMMANDS, args[1]);
+            }
         }
         return completions;
     }
-}
\ No newline at end of file
+
+    private static void addMatching(List<String> completions, List<String> candidates, String prefix) {
+        for (String candidate : candidates) {
+            if (candidate.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                completions.add(candidate);
+            }
+        }
+    }
+}